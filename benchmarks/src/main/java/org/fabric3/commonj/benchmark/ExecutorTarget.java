@@ -0,0 +1,130 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.benchmark;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import commonj.work.Work;
+import commonj.work.WorkException;
+import org.fabric3.commonj.work.DefaultWorkManager;
+import org.fabric3.commonj.work.WorkManagerConfiguration;
+
+/**
+ * Runs work on either a {@link DefaultWorkManager} or a <code>ThreadPoolExecutor</code> baseline with the same number of threads, so benchmarks
+ * can compare the two through a single code path.
+ */
+public abstract class ExecutorTarget {
+    /**
+     * Selects the DefaultWorkManager.
+     */
+    public static final String WORK_MANAGER = "workManager";
+
+    /**
+     * Selects the ThreadPoolExecutor baseline.
+     */
+    public static final String THREAD_POOL = "threadPool";
+
+    /**
+     * Creates a target.
+     *
+     * @param implementation {@link #WORK_MANAGER} or {@link #THREAD_POOL}
+     * @param threads        the number of worker threads
+     * @return the target
+     */
+    public static ExecutorTarget create(String implementation, int threads) {
+        if (WORK_MANAGER.equals(implementation)) {
+            WorkManagerConfiguration configuration = new WorkManagerConfiguration();
+            configuration.setName("benchmark");
+            configuration.setParallelism(threads);
+            return new WorkManagerTarget(new DefaultWorkManager(configuration));
+        } else if (THREAD_POOL.equals(implementation)) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            executor.prestartAllCoreThreads();
+            return new ThreadPoolTarget(executor);
+        }
+        throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+
+    /**
+     * Runs the work asynchronously.
+     *
+     * @param work the work
+     * @throws WorkException if the work is rejected
+     */
+    public abstract void execute(Work work) throws WorkException;
+
+    /**
+     * Stops the worker threads.
+     */
+    public abstract void shutdown();
+
+    private static final class WorkManagerTarget extends ExecutorTarget {
+        private final DefaultWorkManager workManager;
+
+        private WorkManagerTarget(DefaultWorkManager workManager) {
+            this.workManager = workManager;
+        }
+
+        public void execute(Work work) throws WorkException {
+            workManager.schedule(work);
+        }
+
+        public void shutdown() {
+            workManager.shutdown();
+        }
+    }
+
+    private static final class ThreadPoolTarget extends ExecutorTarget {
+        private final ThreadPoolExecutor executor;
+
+        private ThreadPoolTarget(ThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
+        public void execute(Work work) {
+            executor.execute(work);
+        }
+
+        public void shutdown() {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.benchmark;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import commonj.work.WorkException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures scheduling throughput with 1 to 64 producer threads, comparing the DefaultWorkManager with a ThreadPoolExecutor of the same size.
+ * Producers share a bound on the number of outstanding work items so the measurement reflects sustained throughput rather than queue growth.
+ * <pre>
+ *   java -jar target/benchmarks.jar ThroughputBenchmark -p threads=8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ThroughputBenchmark {
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({ExecutorTarget.WORK_MANAGER, ExecutorTarget.THREAD_POOL})
+    public String implementation;
+
+    @Param({"4"})
+    public int threads;
+
+    private final Semaphore permits = new Semaphore(MAX_OUTSTANDING);
+    private final PermitWork work = new PermitWork(permits);
+    private ExecutorTarget target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = ExecutorTarget.create(implementation, threads);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        permits.acquireUninterruptibly(MAX_OUTSTANDING);
+        permits.release(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        target.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void producers01() throws WorkException {
+        produce();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void producers04() throws WorkException {
+        produce();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void producers16() throws WorkException {
+        produce();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void producers64() throws WorkException {
+        produce();
+    }
+
+    private void produce() throws WorkException {
+        permits.acquireUninterruptibly();
+        target.execute(work);
+    }
+
+}
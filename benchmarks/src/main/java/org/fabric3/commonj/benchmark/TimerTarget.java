@@ -0,0 +1,150 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.benchmark;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import commonj.timers.Timer;
+import commonj.timers.TimerListener;
+import org.fabric3.commonj.timers.DefaultTimerManager;
+import org.fabric3.commonj.timers.TimerManagerConfiguration;
+
+/**
+ * Schedules one-shot tasks on a timer implementation so benchmarks can compare implementations through a single code path.
+ */
+public abstract class TimerTarget {
+    /**
+     * Selects the DefaultTimerManager.
+     */
+    public static final String TIMER_MANAGER = "timerManager";
+
+    /**
+     * Selects the ScheduledThreadPoolExecutor baseline.
+     */
+    public static final String SCHEDULED_THREAD_POOL = "scheduledThreadPool";
+
+    /**
+     * Creates a target.
+     *
+     * @param implementation the implementation name
+     * @param threads        the number of threads used to fire timers
+     * @return the target
+     */
+    public static TimerTarget create(String implementation, int threads) {
+        if (TIMER_MANAGER.equals(implementation)) {
+            TimerManagerConfiguration configuration = new TimerManagerConfiguration();
+            configuration.setName("benchmark");
+            configuration.setShards(threads);
+            return new TimerManagerTarget(new DefaultTimerManager(configuration));
+        } else if (SCHEDULED_THREAD_POOL.equals(implementation)) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads);
+            executor.setRemoveOnCancelPolicy(true);
+            executor.prestartAllCoreThreads();
+            return new ScheduledThreadPoolTarget(executor);
+        }
+        throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task  the task
+     * @param delay the delay in milliseconds
+     * @return a handle used to cancel the task
+     */
+    public abstract Object schedule(Runnable task, long delay);
+
+    /**
+     * Cancels a scheduled task.
+     *
+     * @param handle the handle returned when the task was scheduled
+     */
+    public abstract void cancel(Object handle);
+
+    /**
+     * Stops the timer threads.
+     */
+    public abstract void shutdown();
+
+    private static final class TimerManagerTarget extends TimerTarget {
+        private final DefaultTimerManager timerManager;
+
+        private TimerManagerTarget(DefaultTimerManager timerManager) {
+            this.timerManager = timerManager;
+        }
+
+        public Object schedule(final Runnable task, long delay) {
+            return timerManager.schedule(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    task.run();
+                }
+            }, delay);
+        }
+
+        public void cancel(Object handle) {
+            ((Timer) handle).cancel();
+        }
+
+        public void shutdown() {
+            timerManager.stop();
+        }
+    }
+
+    private static final class ScheduledThreadPoolTarget extends TimerTarget {
+        private final ScheduledThreadPoolExecutor executor;
+
+        private ScheduledThreadPoolTarget(ScheduledThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
+        public Object schedule(Runnable task, long delay) {
+            return executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+
+        public void cancel(Object handle) {
+            ((ScheduledFuture<?>) handle).cancel(false);
+        }
+
+        public void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkManager;
+import org.fabric3.commonj.work.DefaultWorkManager;
+import org.fabric3.commonj.work.WorkManagerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of waiting on 10 to 100,000 work items. <code>waitForAll</code> and <code>waitForAny</code> schedule the items and wait for
+ * all of them or the first of them; <code>waitForAllCompleted</code> waits on items that have already completed, which isolates the cost of
+ * scanning the collection. The <code>threadPool</code> methods are the equivalent ThreadPoolExecutor idioms: waiting on each Future in turn and
+ * taking the first result from an ExecutorCompletionService.
+ * <pre>
+ *   java -jar target/benchmarks.jar WaitBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WaitBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"4"})
+    public int threads;
+
+    private final NoOpWork work = new NoOpWork();
+    private DefaultWorkManager workManager;
+    private ThreadPoolExecutor executor;
+    private List<WorkItem> completedItems;
+    private List<Future<?>> completedFutures;
+    private List<WorkItem> items;
+    private List<Future<?>> futures;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        WorkManagerConfiguration configuration = new WorkManagerConfiguration();
+        configuration.setName("wait");
+        configuration.setParallelism(threads);
+        workManager = new DefaultWorkManager(configuration);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.prestartAllCoreThreads();
+        completedItems = schedule();
+        workManager.waitForAll(completedItems, WorkManager.INDEFINITE);
+        completedFutures = submit();
+        for (Future<?> future : completedFutures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Waits for work left running by the waitForAny benchmarks so it does not overlap the next invocation.
+     */
+    @TearDown(Level.Invocation)
+    public void drain() throws Exception {
+        if (items != null) {
+            workManager.waitForAll(items, WorkManager.INDEFINITE);
+            items = null;
+        }
+        if (futures != null) {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            futures = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workManager.shutdown();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public boolean waitForAll() throws WorkException, InterruptedException {
+        return workManager.waitForAll(schedule(), WorkManager.INDEFINITE);
+    }
+
+    @Benchmark
+    public Collection waitForAny() throws WorkException, InterruptedException {
+        items = schedule();
+        return workManager.waitForAny(items, WorkManager.INDEFINITE);
+    }
+
+    @Benchmark
+    public boolean waitForAllCompleted() throws InterruptedException {
+        return workManager.waitForAll(completedItems, WorkManager.IMMEDIATE);
+    }
+
+    @Benchmark
+    public Object threadPoolWaitForAll() throws InterruptedException, ExecutionException {
+        Object result = null;
+        for (Future<?> future : submit()) {
+            result = future.get();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Future<?> threadPoolWaitForAny() throws InterruptedException {
+        ExecutorCompletionService<Object> service = new ExecutorCompletionService<Object>(executor);
+        futures = new ArrayList<Future<?>>(size);
+        for (int i = 0; i < size; i++) {
+            futures.add(service.submit(work, null));
+        }
+        return service.take();
+    }
+
+    @Benchmark
+    public boolean threadPoolWaitForAllCompleted() {
+        boolean done = true;
+        for (Future<?> future : completedFutures) {
+            done &= future.isDone();
+        }
+        return done;
+    }
+
+    private List<WorkItem> schedule() throws WorkException {
+        List<WorkItem> scheduled = new ArrayList<WorkItem>(size);
+        for (int i = 0; i < size; i++) {
+            scheduled.add(workManager.schedule(work));
+        }
+        return scheduled;
+    }
+
+    private List<Future<?>> submit() {
+        List<Future<?>> submitted = new ArrayList<Future<?>>(size);
+        for (int i = 0; i < size; i++) {
+            submitted.add(executor.submit(work));
+        }
+        return submitted;
+    }
+
+}
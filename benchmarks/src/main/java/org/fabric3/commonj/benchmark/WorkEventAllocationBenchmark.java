@@ -0,0 +1,115 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import org.fabric3.commonj.work.DefaultWorkManager;
+import org.fabric3.commonj.work.WorkManagerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures allocation on the listener-attached schedule path, including the started and completed events dispatched by worker threads. Run with
+ * the GC profiler to report the allocation per operation:
+ * <pre>
+ *   java -jar target/benchmarks.jar WorkEventAllocationBenchmark -prof gc
+ * </pre>
+ * With event reuse enabled, <code>gc.alloc.rate.norm</code> is the size of a single work item; without it, three WorkEvents are allocated per
+ * operation in addition.
+ * <p/>
+ * The number of outstanding work items is bounded so worker queues never spill into the overflow queue, which allocates a node per item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WorkEventAllocationBenchmark {
+    private static final int MAX_OUTSTANDING = 256;
+
+    @Param({"true", "false"})
+    public boolean reuseEvents;
+
+    private final NoOpWork work = new NoOpWork();
+    private final CountingWorkListener listener = new CountingWorkListener();
+    private DefaultWorkManager workManager;
+    private long scheduled;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WorkManagerConfiguration configuration = new WorkManagerConfiguration();
+        configuration.setName("allocation");
+        configuration.setReuseEvents(reuseEvents);
+        workManager = new DefaultWorkManager(configuration);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        listener.awaitDone(scheduled);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workManager.shutdown();
+    }
+
+    @Benchmark
+    public WorkItem scheduleWithListener() throws WorkException {
+        while (scheduled - listener.getDone() >= MAX_OUTSTANDING) {
+            Thread.yield();
+        }
+        scheduled++;
+        return workManager.schedule(work, listener);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+/**
+ * Determines how a fixed-rate timer that has fallen behind its schedule, for example after a garbage collection pause or while its timer manager
+ * was suspended, makes up for the executions it missed. Executions that are not run are counted as skipped and reported through
+ * {@link DefaultTimer#getSkippedExecutions()} and {@link DefaultTimerManager#getSkippedCount()}.
+ */
+public enum CatchUpPolicy {
+
+    /**
+     * Every missed execution runs, back to back, until the timer is back on schedule.
+     */
+    FIRE_ALL,
+
+    /**
+     * The missed executions run once, and the timer then continues at its next scheduled time.
+     */
+    COALESCE,
+
+    /**
+     * The missed executions are skipped and the timer continues at its next scheduled time. An execution that is late is still run as long as the
+     * scheduled time of the following execution has not passed.
+     */
+    SKIP
+
+}
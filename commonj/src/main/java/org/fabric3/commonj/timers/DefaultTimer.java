@@ -0,0 +1,393 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import commonj.timers.CancelTimerListener;
+import commonj.timers.StopTimerListener;
+import commonj.timers.Timer;
+import commonj.timers.TimerListener;
+import commonj.work.Work;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+
+/**
+ * The Timer returned by a {@link DefaultTimerManager}. A timer is scheduled until it expires, for a one-shot timer, or is cancelled or stopped.
+ * A recurring timer alternates between scheduled and firing while its listener runs.
+ * <p/>
+ * Deadlines are kept in nanoseconds on the monotonic clock of the timer manager, so changes to the system clock do not affect when timers fire;
+ * the scheduled execution time reported to listeners is kept in milliseconds since the epoch, as required by the spec.
+ */
+public class DefaultTimer implements Timer {
+    private static final AtomicIntegerFieldUpdater<DefaultTimer> STATE = AtomicIntegerFieldUpdater.newUpdater(DefaultTimer.class, "state");
+    private static final AtomicIntegerFieldUpdater<DefaultTimer> DISPATCHED = AtomicIntegerFieldUpdater.newUpdater(DefaultTimer.class, "dispatched");
+
+    private static final int SCHEDULED = 0;
+    private static final int FIRING = 1;
+    private static final int EXPIRED = 2;
+    private static final int CANCELLED = 3;
+    private static final int STOPPED = 4;
+
+    private final TimerListener listener;
+    private final DefaultTimerManager timerManager;
+    private final TimerThread thread;
+    private final ClassLoader classLoader;
+    private final long period;
+    private final boolean fixedRate;
+    private final CatchUpPolicy catchUpPolicy;
+    private final long slack;
+    private final Firing firing;
+
+    private volatile int state;
+    // 1 while an execution handed to the work manager has not run
+    private volatile int dispatched;
+    private volatile long scheduledExecutionTime;
+    private volatile long skippedExecutions;
+    // the deadline of the next execution in nanoseconds since the timer manager was created
+    long deadline;
+
+    // the following are owned by the timer thread
+    long tick;
+    int slot = -1;
+    DefaultTimer previous;
+    DefaultTimer next;
+
+    DefaultTimer(TimerListener listener,
+                 DefaultTimerManager timerManager,
+                 TimerThread thread,
+                 long period,
+                 boolean fixedRate,
+                 CatchUpPolicy catchUpPolicy,
+                 long slack,
+                 long scheduledExecutionTime,
+                 long deadline) {
+        this.listener = listener;
+        this.timerManager = timerManager;
+        this.thread = thread;
+        this.period = period;
+        this.fixedRate = fixedRate;
+        this.catchUpPolicy = catchUpPolicy;
+        this.slack = slack;
+        this.scheduledExecutionTime = scheduledExecutionTime;
+        this.deadline = deadline;
+        this.classLoader = Thread.currentThread().getContextClassLoader();
+        this.firing = timerManager.getWorkManager() != null ? new Firing() : null;
+    }
+
+    /**
+     * Cancels the timer. The listener, if it is a {@link CancelTimerListener}, is notified on the calling thread. The timer is unlinked from the
+     * timing wheel by the timer thread the next time it wakes.
+     */
+    public boolean cancel() {
+        for (; ; ) {
+            int current = state;
+            if (current != SCHEDULED && (current != FIRING || period == 0)) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, CANCELLED)) {
+                break;
+            }
+        }
+        thread.cancelled(this);
+        if (listener instanceof CancelTimerListener) {
+            Thread current = Thread.currentThread();
+            ClassLoader old = current.getContextClassLoader();
+            current.setContextClassLoader(classLoader);
+            try {
+                ((CancelTimerListener) listener).timerCancel(this);
+            } catch (RuntimeException e) {
+                current.getUncaughtExceptionHandler().uncaughtException(current, e);
+            } finally {
+                current.setContextClassLoader(old);
+            }
+        }
+        return true;
+    }
+
+    public TimerListener getTimerListener() {
+        checkStopped();
+        return listener;
+    }
+
+    public long getScheduledExecutionTime() throws IllegalStateException {
+        checkStopped();
+        return scheduledExecutionTime;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Returns true if the timer repeats at a fixed rate rather than with a fixed delay.
+     *
+     * @return true if the timer repeats at a fixed rate
+     */
+    public boolean isFixedRate() {
+        return fixedRate;
+    }
+
+    /**
+     * Returns the policy a fixed-rate timer follows to catch up with executions it has missed.
+     *
+     * @return the catch-up policy
+     */
+    public CatchUpPolicy getCatchUpPolicy() {
+        return catchUpPolicy;
+    }
+
+    /**
+     * Returns how late in milliseconds each execution of the timer may fire so that it can share a wakeup of the timer thread with other timers.
+     * The slack of a recurring timer is capped at a quarter of its period when the timer is placed.
+     *
+     * @return the slack in milliseconds
+     */
+    public long getSlack() {
+        return slack;
+    }
+
+    /**
+     * Returns the number of executions of a fixed-rate timer that were skipped or coalesced between its previous execution and the current one.
+     * Listeners can call this from {@link TimerListener#timerExpired(Timer)} to find out how many executions they missed.
+     *
+     * @return the number of skipped executions
+     */
+    public long getSkippedExecutions() {
+        return skippedExecutions;
+    }
+
+    public String toString() {
+        return "Timer[" + listener + ", period=" + period + ", state=" + state + "]";
+    }
+
+    /**
+     * Returns true if the timer is waiting to fire.
+     *
+     * @return true if the timer is waiting to fire
+     */
+    boolean isScheduled() {
+        return state == SCHEDULED;
+    }
+
+    /**
+     * Skips the missed executions of a fixed-rate timer with the {@link CatchUpPolicy#SKIP} policy if the scheduled time of the execution after
+     * the one that is due has passed, moving the timer to its next scheduled time.
+     *
+     * @param now the current time in nanoseconds since the timer manager was created
+     * @return true if executions were skipped, in which case the timer must be returned to the timing wheel rather than fired
+     */
+    boolean skip(long now) {
+        if (catchUpPolicy != CatchUpPolicy.SKIP || !fixedRate || state != SCHEDULED) {
+            return false;
+        }
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        if (now - deadline < periodNanos) {
+            return false;
+        }
+        long executions = (now - deadline) / periodNanos + 1;
+        deadline = DefaultTimerManager.add(deadline, multiply(executions, periodNanos));
+        scheduledExecutionTime = DefaultTimerManager.add(scheduledExecutionTime, multiply(executions, period));
+        skippedExecutions += executions;
+        timerManager.skipped(executions);
+        return true;
+    }
+
+    /**
+     * Claims the timer for an execution: a one-shot timer expires and a recurring timer is marked as firing.
+     *
+     * @return true if the timer should fire, false if it was cancelled or stopped
+     */
+    boolean start() {
+        return STATE.compareAndSet(this, SCHEDULED, period == 0 ? EXPIRED : FIRING);
+    }
+
+    /**
+     * Invokes the listener with the context classloader of the thread that scheduled the timer. Exceptions thrown by the listener are passed to
+     * the uncaught exception handler of the current thread, so a failing recurring timer keeps its schedule.
+     */
+    void fire() {
+        Thread current = Thread.currentThread();
+        ClassLoader old = current.getContextClassLoader();
+        current.setContextClassLoader(classLoader);
+        try {
+            listener.timerExpired(this);
+        } catch (Throwable e) {
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        } finally {
+            current.setContextClassLoader(old);
+        }
+    }
+
+    /**
+     * Hands an execution of the timer to a work manager. If the work manager rejects it, the timer fires on the rejecting thread rather than
+     * missing the execution.
+     *
+     * @param workManager the work manager
+     */
+    void dispatch(WorkManager workManager) {
+        dispatched = 1;
+        try {
+            workManager.schedule(firing, firing);
+        } catch (WorkException e) {
+            execute();
+        } catch (IllegalArgumentException e) {
+            execute();
+        }
+    }
+
+    /**
+     * Computes the next execution of a recurring timer after it has fired and marks it as scheduled. A fixed-delay timer is next due one period
+     * after now. A fixed-rate timer with the {@link CatchUpPolicy#FIRE_ALL} policy is next due one period after its previous scheduled time;
+     * otherwise it is next due at the first execution time of its schedule that is after now, and the executions passed over are counted as
+     * skipped.
+     *
+     * @param now the current time in nanoseconds since the timer manager was created
+     * @return true if the timer was rescheduled, false if it was cancelled or stopped while firing
+     */
+    boolean reschedule(long now) {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        if (fixedRate) {
+            long executions = catchUpPolicy == CatchUpPolicy.FIRE_ALL || now - deadline < 0 ? 1 : (now - deadline) / periodNanos + 1;
+            skippedExecutions = executions - 1;
+            if (executions > 1) {
+                timerManager.skipped(executions - 1);
+            }
+            deadline = DefaultTimerManager.add(deadline, multiply(executions, periodNanos));
+            scheduledExecutionTime = DefaultTimerManager.add(scheduledExecutionTime, multiply(executions, period));
+        } else {
+            // read the wall clock first so that the timer cannot fire before the scheduled execution time it reports
+            scheduledExecutionTime = DefaultTimerManager.add(System.currentTimeMillis(), period);
+            deadline = DefaultTimerManager.add(Math.max(now, timerManager.elapsed()), periodNanos);
+        }
+        return STATE.compareAndSet(this, FIRING, SCHEDULED);
+    }
+
+    /**
+     * Stops the timer if it is scheduled and notifies the listener if it is a {@link StopTimerListener}.
+     *
+     * @param notify true if the listener should be notified
+     * @return true if the timer was stopped
+     */
+    boolean stop(boolean notify) {
+        if (!STATE.compareAndSet(this, SCHEDULED, STOPPED)) {
+            return false;
+        }
+        if (notify && listener instanceof StopTimerListener) {
+            Thread current = Thread.currentThread();
+            ClassLoader old = current.getContextClassLoader();
+            current.setContextClassLoader(classLoader);
+            try {
+                ((StopTimerListener) listener).timerStop(this);
+            } catch (RuntimeException e) {
+                current.getUncaughtExceptionHandler().uncaughtException(current, e);
+            } finally {
+                current.setContextClassLoader(old);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs an execution handed to the work manager unless it has already run, then hands a recurring timer back to its timer thread.
+     */
+    private void execute() {
+        if (!DISPATCHED.compareAndSet(this, 1, 0)) {
+            return;
+        }
+        try {
+            fire();
+            if (period != 0 && reschedule(timerManager.elapsed())) {
+                thread.schedule(this);
+                if (timerManager.isStopping()) {
+                    // the timer thread may have stopped its timers before this one was handed back
+                    stop(true);
+                }
+            }
+        } finally {
+            timerManager.firingCompleted();
+        }
+    }
+
+    private void checkStopped() {
+        if (timerManager.isStopping()) {
+            throw new IllegalStateException("Timer manager is stopped: " + timerManager.getName());
+        }
+    }
+
+    private static long multiply(long a, long b) {
+        long product = a * b;
+        return a != 0 && (product / a != b || product < 0) ? Long.MAX_VALUE : product;
+    }
+
+    /**
+     * The work and listener an execution is handed to the work manager as. They are created once with the timer, but the work manager still
+     * creates a work item for each execution, and work events unless it is configured to reuse them.
+     */
+    private final class Firing implements Work, WorkListener {
+
+        public void run() {
+            execute();
+        }
+
+        public void release() {
+            // listeners cannot be asked to stop
+        }
+
+        public boolean isDaemon() {
+            return false;
+        }
+
+        public void workAccepted(WorkEvent event) {
+        }
+
+        public void workRejected(WorkEvent event) {
+            execute();
+        }
+
+        public void workStarted(WorkEvent event) {
+        }
+
+        public void workCompleted(WorkEvent event) {
+        }
+    }
+
+}
@@ -0,0 +1,533 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import commonj.timers.Timer;
+import commonj.timers.TimerListener;
+import commonj.timers.TimerManager;
+import commonj.work.WorkManager;
+
+/**
+ * A TimerManager backed by a hierarchical {@link TimingWheel}, so scheduling and cancelling a timer take constant time regardless of the number
+ * of timers. Scheduling threads hand timers to the timer thread through a lock-free queue and never contend on the wheel itself; cancelling marks
+ * the timer and queues it to be unlinked.
+ * <p/>
+ * Timers may be divided into shards, each with its own wheel and timer thread. A timer belongs to the shard selected by the thread that schedules
+ * it, and is cancelled and fired by that shard alone. All shards measure time from the same origin, so the scheduled execution time of a timer
+ * does not depend on its shard.
+ * <p/>
+ * Timer listeners run on the timer thread with the context classloader of the thread that scheduled them. Exceptions thrown by listeners are
+ * passed to the uncaught exception handler of the timer thread. When configured with a work manager, timer threads hand each execution to it
+ * instead, and the timer manager is suspended or stopped only once executions in progress on the work manager have completed.
+ * <p/>
+ * While the timer manager is suspended, timers that expire are not fired; they fire when it is resumed, with fixed-rate timers catching up
+ * according to their {@link CatchUpPolicy}. Stopping the timer manager stops all timers, notifying {@link commonj.timers.StopTimerListener}s after any
+ * listener that is running has returned.
+ */
+public class DefaultTimerManager implements TimerManager {
+    private static final int RUNNING = 0;
+    private static final int SUSPENDING = 1;
+    private static final int STOPPING = 2;
+
+    private final String name;
+    private final long origin = System.nanoTime();
+    private final TimerThread[] threads;
+    private final WorkManager workManager;
+    private final CatchUpPolicy catchUpPolicy;
+    private final long slack;
+    private final LongAdder skipped = new LongAdder();
+    // executions handed to the work manager that have not completed
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object lifecycle = new Object();
+    private volatile int state;
+    private volatile boolean stopped;
+    private int running;
+
+    /**
+     * Creates a timer manager using the default configuration.
+     */
+    public DefaultTimerManager() {
+        this(new TimerManagerConfiguration());
+    }
+
+    /**
+     * Creates a timer manager and starts its timer threads.
+     *
+     * @param configuration the timer manager configuration
+     */
+    public DefaultTimerManager(TimerManagerConfiguration configuration) {
+        name = configuration.getName();
+        workManager = configuration.getWorkManager();
+        catchUpPolicy = configuration.getCatchUpPolicy();
+        slack = configuration.getTimerSlack();
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getTickDuration());
+        int shards = configuration.getShards();
+        threads = new TimerThread[shards];
+        for (int i = 0; i < shards; i++) {
+            threads[i] = new TimerThread(shards == 1 ? name + "-timer" : name + "-timer-" + i, this, tickNanos);
+        }
+        running = shards;
+        for (TimerThread thread : threads) {
+            thread.start();
+        }
+    }
+
+    public void suspend() {
+        synchronized (lifecycle) {
+            checkStopping();
+            state = SUSPENDING;
+        }
+        wakeup();
+    }
+
+    public boolean isSuspending() throws IllegalStateException {
+        checkStopping();
+        return state == SUSPENDING;
+    }
+
+    public boolean isSuspended() throws IllegalStateException {
+        checkStopping();
+        if (state != SUSPENDING) {
+            return false;
+        }
+        for (TimerThread thread : threads) {
+            if (!thread.isSuspended()) {
+                return false;
+            }
+        }
+        return inFlight.get() == 0;
+    }
+
+    public boolean waitForSuspend(long timeout_ms) throws InterruptedException, IllegalStateException, IllegalArgumentException {
+        checkTimeout(timeout_ms);
+        long deadline = deadline(timeout_ms);
+        synchronized (lifecycle) {
+            while (!isSuspended()) {
+                if (!await(deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public void resume() throws IllegalStateException {
+        synchronized (lifecycle) {
+            checkStopping();
+            state = RUNNING;
+        }
+        wakeup();
+    }
+
+    public void stop() throws IllegalStateException {
+        synchronized (lifecycle) {
+            checkStopping();
+            state = STOPPING;
+        }
+        wakeup();
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public boolean isStopping() {
+        return state == STOPPING;
+    }
+
+    public boolean waitForStop(long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        checkTimeout(timeout_ms);
+        long deadline = deadline(timeout_ms);
+        synchronized (lifecycle) {
+            while (!stopped) {
+                if (!await(deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public Timer schedule(TimerListener listener, Date time) throws IllegalArgumentException, IllegalStateException {
+        checkDate(time);
+        return schedule(listener, delay(time), 0, false, catchUpPolicy, slack);
+    }
+
+    public Timer schedule(TimerListener listener, long delay) throws IllegalArgumentException, IllegalStateException {
+        return schedule(listener, delay, 0, false, catchUpPolicy, slack);
+    }
+
+    public Timer schedule(TimerListener listener, Date firstTime, long period) throws IllegalArgumentException, IllegalStateException {
+        checkDate(firstTime);
+        return schedule(listener, delay(firstTime), period, false, catchUpPolicy, slack);
+    }
+
+    public Timer schedule(TimerListener listener, long delay, long period) throws IllegalArgumentException, IllegalStateException {
+        return schedule(listener, delay, period, false, catchUpPolicy, slack);
+    }
+
+    /**
+     * Schedules a timer that may fire up to the given slack after each of its scheduled times, instead of the slack configured for the timer
+     * manager.
+     *
+     * @param listener  the timer listener
+     * @param firstTime the time of the first execution
+     * @param period    the delay between executions in milliseconds, or zero for a timer that fires once
+     * @param slack     how late each execution may fire in milliseconds
+     * @return the timer
+     * @throws IllegalArgumentException if an argument is invalid
+     * @throws IllegalStateException    if the timer manager is stopping or stopped
+     */
+    public Timer schedule(TimerListener listener, Date firstTime, long period, long slack) throws IllegalArgumentException, IllegalStateException {
+        checkDate(firstTime);
+        return schedule(listener, delay(firstTime), period, false, catchUpPolicy, slack);
+    }
+
+    /**
+     * Schedules a timer that may fire up to the given slack after each of its scheduled times, instead of the slack configured for the timer
+     * manager.
+     *
+     * @param listener the timer listener
+     * @param delay    the delay before the first execution in milliseconds
+     * @param period   the delay between executions in milliseconds, or zero for a timer that fires once
+     * @param slack    how late each execution may fire in milliseconds
+     * @return the timer
+     * @throws IllegalArgumentException if an argument is invalid
+     * @throws IllegalStateException    if the timer manager is stopping or stopped
+     */
+    public Timer schedule(TimerListener listener, long delay, long period, long slack) throws IllegalArgumentException, IllegalStateException {
+        return schedule(listener, delay, period, false, catchUpPolicy, slack);
+    }
+
+    public Timer scheduleAtFixedRate(TimerListener listener, Date firstTime, long period) throws IllegalArgumentException, IllegalStateException {
+        checkDate(firstTime);
+        return schedule(listener, delay(firstTime), period, true, catchUpPolicy, slack);
+    }
+
+    public Timer scheduleAtFixedRate(TimerListener listener, long delay, long period) throws IllegalArgumentException, IllegalStateException {
+        return schedule(listener, delay, period, true, catchUpPolicy, slack);
+    }
+
+    /**
+     * Schedules a fixed-rate timer that catches up with missed executions according to the given policy.
+     *
+     * @param listener      the timer listener
+     * @param firstTime     the time of the first execution
+     * @param period        the period between executions in milliseconds
+     * @param catchUpPolicy the catch-up policy
+     * @return the timer
+     * @throws IllegalArgumentException if an argument is invalid
+     * @throws IllegalStateException    if the timer manager is stopping or stopped
+     */
+    public Timer scheduleAtFixedRate(TimerListener listener, Date firstTime, long period, CatchUpPolicy catchUpPolicy)
+            throws IllegalArgumentException, IllegalStateException {
+        checkDate(firstTime);
+        checkPolicy(catchUpPolicy);
+        return schedule(listener, delay(firstTime), period, true, catchUpPolicy, slack);
+    }
+
+    /**
+     * Schedules a fixed-rate timer that catches up with missed executions according to the given policy.
+     *
+     * @param listener      the timer listener
+     * @param delay         the delay before the first execution in milliseconds
+     * @param period        the period between executions in milliseconds
+     * @param catchUpPolicy the catch-up policy
+     * @return the timer
+     * @throws IllegalArgumentException if an argument is invalid
+     * @throws IllegalStateException    if the timer manager is stopping or stopped
+     */
+    public Timer scheduleAtFixedRate(TimerListener listener, long delay, long period, CatchUpPolicy catchUpPolicy)
+            throws IllegalArgumentException, IllegalStateException {
+        checkPolicy(catchUpPolicy);
+        return schedule(listener, delay, period, true, catchUpPolicy, slack);
+    }
+
+    /**
+     * Schedules a fixed-rate timer that catches up with missed executions according to the given policy and may fire up to the given slack
+     * after each of its scheduled times, instead of the slack configured for the timer manager.
+     *
+     * @param listener      the timer listener
+     * @param firstTime     the time of the first execution
+     * @param period        the period between executions in milliseconds
+     * @param catchUpPolicy the catch-up policy
+     * @param slack         how late each execution may fire in milliseconds
+     * @return the timer
+     * @throws IllegalArgumentException if an argument is invalid
+     * @throws IllegalStateException    if the timer manager is stopping or stopped
+     */
+    public Timer scheduleAtFixedRate(TimerListener listener, Date firstTime, long period, CatchUpPolicy catchUpPolicy, long slack)
+            throws IllegalArgumentException, IllegalStateException {
+        checkDate(firstTime);
+        checkPolicy(catchUpPolicy);
+        return schedule(listener, delay(firstTime), period, true, catchUpPolicy, slack);
+    }
+
+    /**
+     * Schedules a fixed-rate timer that catches up with missed executions according to the given policy and may fire up to the given slack
+     * after each of its scheduled times, instead of the slack configured for the timer manager.
+     *
+     * @param listener      the timer listener
+     * @param delay         the delay before the first execution in milliseconds
+     * @param period        the period between executions in milliseconds
+     * @param catchUpPolicy the catch-up policy
+     * @param slack         how late each execution may fire in milliseconds
+     * @return the timer
+     * @throws IllegalArgumentException if an argument is invalid
+     * @throws IllegalStateException    if the timer manager is stopping or stopped
+     */
+    public Timer scheduleAtFixedRate(TimerListener listener, long delay, long period, CatchUpPolicy catchUpPolicy, long slack)
+            throws IllegalArgumentException, IllegalStateException {
+        checkPolicy(catchUpPolicy);
+        return schedule(listener, delay, period, true, catchUpPolicy, slack);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of executions of fixed-rate timers that were skipped or coalesced to catch up with their schedule.
+     *
+     * @return the number of skipped executions
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * Returns the time elapsed on the monotonic clock since the timer manager was created.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    long elapsed() {
+        return System.nanoTime() - origin;
+    }
+
+    /**
+     * Returns true if the timer manager is suspending and has not been resumed.
+     *
+     * @return true if the timer manager is suspending
+     */
+    boolean isSuspendRequested() {
+        return state == SUSPENDING;
+    }
+
+    /**
+     * Wakes threads waiting for the timer manager to suspend or stop.
+     */
+    void lifecycleChanged() {
+        synchronized (lifecycle) {
+            lifecycle.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the work manager timer listeners are run on.
+     *
+     * @return the work manager or null if listeners run on the timer threads
+     */
+    WorkManager getWorkManager() {
+        return workManager;
+    }
+
+    /**
+     * Called when executions of a fixed-rate timer are skipped.
+     *
+     * @param count the number of skipped executions
+     */
+    void skipped(long count) {
+        skipped.add(count);
+    }
+
+    /**
+     * Called by a timer thread before it hands an execution to the work manager.
+     */
+    void firingStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Called when an execution handed to the work manager has completed, waking threads waiting for the timer manager to suspend or stop.
+     */
+    void firingCompleted() {
+        if (inFlight.decrementAndGet() == 0 && state != RUNNING) {
+            synchronized (lifecycle) {
+                updateStopped();
+                lifecycle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Called by each timer thread once it has stopped the timers of its shard. The timer manager is stopped when all of them have and executions
+     * in progress on the work manager have completed.
+     */
+    void threadStopped() {
+        synchronized (lifecycle) {
+            running--;
+            updateStopped();
+            lifecycle.notifyAll();
+        }
+    }
+
+    /**
+     * Adds a non-negative amount to a time, saturating at Long.MAX_VALUE.
+     *
+     * @param time   the time
+     * @param amount the amount
+     * @return the sum
+     */
+    static long add(long time, long amount) {
+        long sum = time + amount;
+        return sum < time ? Long.MAX_VALUE : sum;
+    }
+
+    private Timer schedule(TimerListener listener, long delay, long period, boolean fixedRate, CatchUpPolicy catchUpPolicy, long slack) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay cannot be negative: " + delay);
+        }
+        if (period < 0) {
+            throw new IllegalArgumentException("Period cannot be negative: " + period);
+        }
+        if (slack < 0) {
+            throw new IllegalArgumentException("Slack cannot be negative: " + slack);
+        }
+        checkStopping();
+        // read the wall clock first so that a thread preempted between the reads never sees the timer fire before its scheduled time
+        long scheduledTime = add(System.currentTimeMillis(), delay);
+        long deadline = add(elapsed(), TimeUnit.MILLISECONDS.toNanos(delay));
+        TimerThread thread = shard();
+        DefaultTimer timer = new DefaultTimer(listener, this, thread, period, fixedRate, catchUpPolicy, slack, scheduledTime, deadline);
+        thread.schedule(timer);
+        if (state == STOPPING && timer.stop(false)) {
+            // stopped concurrently and the timer thread did not see the timer
+            throw new IllegalStateException("Timer manager is stopped: " + name);
+        }
+        return timer;
+    }
+
+    /**
+     * Returns the shard of the current thread. Shards are selected by thread id, so a thread always schedules into the same shard and threads
+     * created in sequence, such as those of a pool, are spread evenly across shards.
+     *
+     * @return the timer thread of the shard
+     */
+    private TimerThread shard() {
+        if (threads.length == 1) {
+            return threads[0];
+        }
+        return threads[(int) (Thread.currentThread().getId() % threads.length)];
+    }
+
+    /**
+     * Marks the timer manager as stopped if its timer threads have stopped and no executions are in progress. Must be called holding the lifecycle
+     * monitor.
+     */
+    private void updateStopped() {
+        if (running == 0 && inFlight.get() == 0) {
+            stopped = true;
+        }
+    }
+
+    private void wakeup() {
+        for (TimerThread thread : threads) {
+            thread.wakeup();
+        }
+    }
+
+    private void checkStopping() {
+        if (state == STOPPING) {
+            throw new IllegalStateException("Timer manager is stopped: " + name);
+        }
+    }
+
+    /**
+     * Waits on the lifecycle monitor until notified or the deadline passes. Must be called holding the monitor.
+     *
+     * @param deadline the deadline in nanoseconds
+     * @return false if the deadline has passed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private boolean await(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(lifecycle, remaining);
+        return true;
+    }
+
+    private static long delay(Date time) {
+        return Math.max(0, time.getTime() - System.currentTimeMillis());
+    }
+
+    private static void checkDate(Date time) {
+        if (time == null) {
+            throw new IllegalArgumentException("Time cannot be null");
+        }
+    }
+
+    private static void checkPolicy(CatchUpPolicy catchUpPolicy) {
+        if (catchUpPolicy == null) {
+            throw new IllegalArgumentException("Catch-up policy cannot be null");
+        }
+    }
+
+    private static void checkTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative: " + timeout);
+        }
+    }
+
+    private static long deadline(long timeout) {
+        long now = System.nanoTime();
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        // guard against overflow for INDEFINITE
+        return now + nanos < now ? Long.MAX_VALUE : now + nanos;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+import commonj.work.WorkManager;
+
+/**
+ * Configuration for a {@link DefaultTimerManager}.
+ */
+public class TimerManagerConfiguration {
+    private String name = "TimerManager";
+    private long tickDuration = 1;
+    private int shards = 1;
+    private WorkManager workManager;
+    private CatchUpPolicy catchUpPolicy = CatchUpPolicy.COALESCE;
+    private long timerSlack;
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the timer manager, used to name its threads.
+     *
+     * @param name the name
+     */
+    public void setName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        this.name = name;
+    }
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Sets the resolution of the timing wheel in milliseconds. Timers fire at the first tick at or after their scheduled time, so they may fire
+     * up to one tick late, but never early. A coarser tick wakes the timer thread less often when many timers expire at nearby times. Defaults
+     * to one millisecond.
+     *
+     * @param tickDuration the tick duration in milliseconds
+     */
+    public void setTickDuration(long tickDuration) {
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException("Tick duration must be greater than zero: " + tickDuration);
+        }
+        this.tickDuration = tickDuration;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Sets the number of shards timers are divided into. Each shard has its own timing wheel and timer thread, and a timer is placed in the shard
+     * of the thread that schedules it, so threads scheduling and cancelling timers concurrently contend only with the other threads that share
+     * their shard. Setting this to the number of processors removes most contention when timers are scheduled from many threads, at the cost of
+     * one timer thread per shard. Defaults to one.
+     *
+     * @param shards the number of shards
+     */
+    public void setShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shard count must be greater than zero: " + shards);
+        }
+        this.shards = shards;
+    }
+
+    public WorkManager getWorkManager() {
+        return workManager;
+    }
+
+    /**
+     * Sets the work manager timer listeners are run on. Timer threads then only detect that timers have expired and hand each execution to the
+     * work manager, so a slow listener does not delay other timers. Executions of a recurring timer remain serial. If the work manager rejects an
+     * execution, it runs on the rejecting thread. Each execution is scheduled as a separate work item, so the timer threads allocate what the
+     * work manager allocates per scheduled work. To run each listener on its own virtual thread, use a
+     * {@link org.fabric3.commonj.work.DefaultWorkManager} configured with {@link org.fabric3.commonj.work.ExecutionMode#VIRTUAL_THREADS}.
+     * Defaults to null, in which case listeners run on the timer threads.
+     *
+     * @param workManager the work manager or null
+     */
+    public void setWorkManager(WorkManager workManager) {
+        this.workManager = workManager;
+    }
+
+    public CatchUpPolicy getCatchUpPolicy() {
+        return catchUpPolicy;
+    }
+
+    /**
+     * Sets how fixed-rate timers that have fallen behind their schedule catch up, unless a policy is given when the timer is scheduled. Defaults
+     * to {@link CatchUpPolicy#COALESCE}.
+     *
+     * @param catchUpPolicy the catch-up policy
+     */
+    public void setCatchUpPolicy(CatchUpPolicy catchUpPolicy) {
+        if (catchUpPolicy == null) {
+            throw new IllegalArgumentException("Catch-up policy cannot be null");
+        }
+        this.catchUpPolicy = catchUpPolicy;
+    }
+
+    public long getTimerSlack() {
+        return timerSlack;
+    }
+
+    /**
+     * Sets how late in milliseconds timers are allowed to fire, unless a different slack is given when a timer is scheduled with
+     * {@link DefaultTimerManager}. Each execution of a timer may then be deferred by up to the slack, and timers whose windows overlap fire at
+     * the same tick, so the timer threads wake less often when many timers expire at nearby times. Timers never fire before their scheduled
+     * time. The slack applied to a recurring timer is capped at a quarter of its period. Defaults to zero.
+     *
+     * @param timerSlack the slack in milliseconds
+     */
+    public void setTimerSlack(long timerSlack) {
+        if (timerSlack < 0) {
+            throw new IllegalArgumentException("Timer slack cannot be negative: " + timerSlack);
+        }
+        this.timerSlack = timerSlack;
+    }
+
+}
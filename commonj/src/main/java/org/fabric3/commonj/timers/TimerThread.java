@@ -0,0 +1,271 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import commonj.work.WorkManager;
+
+/**
+ * Owns a {@link TimingWheel} and fires the timers in it. Other threads never touch the wheel: timers are handed to the thread through lock-free
+ * queues of newly scheduled and cancelled timers, which it drains each time it wakes. Between expirations the thread parks until the next tick at
+ * which the wheel has work, and is unparked only by a timer that is due before then or by a change in the lifecycle of the timer manager.
+ * <p/>
+ * When a timer has slack, each of its executions may fire at any tick in a window starting at its deadline. The thread places
+ * the timer at the next tick it is due to wake at if that falls in the window, and otherwise at the tick in the window that is the multiple of the
+ * largest power of two, so timers with overlapping windows tend to share a tick and fire in one wakeup. The window of a recurring timer is
+ * capped at a quarter of its period, so slack never makes an execution late enough to be skipped or coalesced with the next one.
+ * <p/>
+ * Listeners run on this thread unless the timer manager has a work manager, in which case the thread hands each execution to the work manager
+ * and a recurring timer is handed back once its execution completes. Either way the executions of a recurring timer are serial and a stopped
+ * timer is notified after its last execution.
+ */
+final class TimerThread extends Thread {
+    private final DefaultTimerManager timerManager;
+    private final long tickNanos;
+    private final TimingWheel wheel;
+    private final WorkManager workManager;
+    private final ConcurrentLinkedQueue<DefaultTimer> scheduled = new ConcurrentLinkedQueue<DefaultTimer>();
+    private final ConcurrentLinkedQueue<DefaultTimer> cancelled = new ConcurrentLinkedQueue<DefaultTimer>();
+    // the tick the thread is parked until, or -1 while it is running
+    private volatile long wakeTick = -1;
+    private volatile boolean suspended;
+
+    /**
+     * Constructor.
+     *
+     * @param name         the thread name
+     * @param timerManager the timer manager
+     * @param tickNanos    the duration of a tick in nanoseconds
+     */
+    TimerThread(String name, DefaultTimerManager timerManager, long tickNanos) {
+        super(name);
+        this.timerManager = timerManager;
+        this.tickNanos = tickNanos;
+        this.wheel = new TimingWheel(timerManager.elapsed() / tickNanos);
+        this.workManager = timerManager.getWorkManager();
+        setDaemon(true);
+    }
+
+    /**
+     * Hands a newly scheduled timer to the thread, waking it if the window in which the timer may fire ends before the thread would otherwise
+     * wake.
+     *
+     * @param timer the timer
+     */
+    void schedule(DefaultTimer timer) {
+        scheduled.offer(timer);
+        if (DefaultTimerManager.add(toTick(timer.deadline), slackTicks(timer)) < wakeTick) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    /**
+     * Hands a cancelled timer to the thread to be unlinked from the wheel.
+     *
+     * @param timer the timer
+     */
+    void cancelled(DefaultTimer timer) {
+        cancelled.offer(timer);
+    }
+
+    /**
+     * Wakes the thread to observe a change in the lifecycle of the timer manager.
+     */
+    void wakeup() {
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Returns true if the thread has observed that the timer manager is suspending and is not firing timers.
+     *
+     * @return true if the thread is suspended
+     */
+    boolean isSuspended() {
+        return suspended;
+    }
+
+    public void run() {
+        try {
+            for (; ; ) {
+                wakeTick = -1;
+                if (timerManager.isStopping()) {
+                    break;
+                }
+                if (timerManager.isSuspendRequested()) {
+                    if (!suspended) {
+                        suspended = true;
+                        timerManager.lifecycleChanged();
+                    }
+                    LockSupport.park(this);
+                    continue;
+                }
+                suspended = false;
+                drain();
+                wheel.advance(timerManager.elapsed() / tickNanos);
+                if (!fireDue()) {
+                    continue;
+                }
+                long next = wheel.nextTick();
+                wakeTick = next;
+                if (!scheduled.isEmpty() || timerManager.isStopping() || timerManager.isSuspendRequested()) {
+                    continue;
+                }
+                if (next == Long.MAX_VALUE || next > Long.MAX_VALUE / tickNanos) {
+                    LockSupport.park(this);
+                } else {
+                    long delay = next * tickNanos - timerManager.elapsed();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(this, delay);
+                    }
+                }
+            }
+        } finally {
+            stopTimers();
+            timerManager.threadStopped();
+        }
+    }
+
+    /**
+     * Adds newly scheduled timers to the wheel and unlinks cancelled ones.
+     */
+    private void drain() {
+        for (DefaultTimer timer = cancelled.poll(); timer != null; timer = cancelled.poll()) {
+            wheel.remove(timer);
+        }
+        for (DefaultTimer timer = scheduled.poll(); timer != null; timer = scheduled.poll()) {
+            if (timer.isScheduled()) {
+                add(timer);
+            }
+        }
+    }
+
+    /**
+     * Fires the timers that are due, rescheduling recurring timers, or hands them to the work manager.
+     *
+     * @return false if the timer manager is suspending or stopping, in which case timers that have not fired remain due
+     */
+    private boolean fireDue() {
+        for (DefaultTimer timer = wheel.poll(); timer != null; timer = wheel.poll()) {
+            if (timer.skip(timerManager.elapsed())) {
+                add(timer);
+            } else if (timer.start()) {
+                if (workManager != null) {
+                    timerManager.firingStarted();
+                    timer.dispatch(workManager);
+                } else {
+                    timer.fire();
+                    if (timer.getPeriod() != 0 && timer.reschedule(timerManager.elapsed())) {
+                        add(timer);
+                    }
+                }
+            }
+            if (timerManager.isStopping() || timerManager.isSuspendRequested()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(DefaultTimer timer) {
+        long tick = toTick(timer.deadline);
+        long slack = slackTicks(timer);
+        timer.tick = slack == 0 ? tick : coalesce(tick, DefaultTimerManager.add(tick, slack));
+        wheel.add(timer);
+    }
+
+    /**
+     * Chooses the tick at which a timer that may fire in the given window fires: the next tick the thread wakes at if it falls in the window,
+     * otherwise the tick in the window with the most trailing zero bits.
+     *
+     * @param earliest the first tick of the window
+     * @param latest   the last tick of the window
+     * @return the tick
+     */
+    private long coalesce(long earliest, long latest) {
+        long next = wheel.nextTick();
+        if (next >= earliest && next <= latest) {
+            return next;
+        }
+        // clear the bits of latest below the highest bit in which it differs from earliest - 1
+        return latest & -Long.highestOneBit((earliest - 1) ^ latest);
+    }
+
+    /**
+     * Stops the timers remaining in the wheel and those scheduled concurrently with stopping, notifying their listeners.
+     */
+    private void stopTimers() {
+        DefaultTimer timer = wheel.clear();
+        while (timer != null) {
+            DefaultTimer next = timer.next;
+            timer.next = null;
+            timer.stop(true);
+            timer = next;
+        }
+        for (timer = scheduled.poll(); timer != null; timer = scheduled.poll()) {
+            timer.stop(true);
+        }
+        cancelled.clear();
+    }
+
+    /**
+     * Returns the number of ticks a timer may fire late: the slack of the timer, capped at a quarter of the period of a recurring timer.
+     *
+     * @param timer the timer
+     * @return the slack in ticks
+     */
+    private long slackTicks(DefaultTimer timer) {
+        long slackTicks = TimeUnit.MILLISECONDS.toNanos(timer.getSlack()) / tickNanos;
+        long period = timer.getPeriod();
+        if (slackTicks == 0 || period == 0) {
+            return slackTicks;
+        }
+        return Math.min(slackTicks, TimeUnit.MILLISECONDS.toNanos(period) / tickNanos >> 2);
+    }
+
+    /**
+     * Returns the first tick at or after the given deadline, so that timers never fire early.
+     */
+    private long toTick(long deadline) {
+        long tick = deadline / tickNanos;
+        return deadline % tickNanos == 0 ? tick : tick + 1;
+    }
+
+}
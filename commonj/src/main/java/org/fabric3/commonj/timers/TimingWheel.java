@@ -0,0 +1,299 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+/**
+ * A hierarchical timing wheel. Time is measured in ticks; each level has 512 slots, and a slot at level <i>k</i> spans 512<sup><i>k</i></sup>
+ * ticks. A timer is placed at the lowest level at which its expiry tick and the current tick differ, so adding and removing a timer takes constant
+ * time. When time reaches the start of a slot at a higher level, its timers are cascaded to lower levels, each timer being moved at most once per
+ * level.
+ * <p/>
+ * Each slot is a doubly linked list threaded through the timers, and a bitmap of occupied slots per level lets the wheel find the next tick at
+ * which anything happens without visiting empty slots, so the owning thread can sleep through idle periods of any length.
+ * <p/>
+ * The wheel is not thread-safe; it is owned by a single timer thread.
+ */
+final class TimingWheel {
+    private static final int SLOT_BITS = 9;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 7;
+    private static final int WORDS = SLOTS / 64;
+
+    /**
+     * The largest tick a timer can expire at; later ticks are clamped to it.
+     */
+    static final long MAX_TICK = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final DefaultTimer[] slots = new DefaultTimer[LEVELS * SLOTS];
+    private final long[] occupied = new long[LEVELS * WORDS];
+    private long now;
+    private int size;
+    private DefaultTimer dueHead;
+    private DefaultTimer dueTail;
+
+    /**
+     * Constructor.
+     *
+     * @param now the current tick
+     */
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    /**
+     * Returns the current tick.
+     *
+     * @return the current tick
+     */
+    long getNow() {
+        return now;
+    }
+
+    /**
+     * Returns the number of timers in the wheel, excluding those that are due.
+     *
+     * @return the number of timers
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a timer. A timer whose tick is not after the current tick is queued as due.
+     *
+     * @param timer the timer
+     */
+    void add(DefaultTimer timer) {
+        long tick = Math.min(timer.tick, MAX_TICK);
+        if (tick <= now) {
+            due(timer);
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(tick ^ now)) / SLOT_BITS;
+        int index = level * SLOTS + ((int) (tick >>> (level * SLOT_BITS)) & MASK);
+        DefaultTimer head = slots[index];
+        timer.slot = index;
+        timer.previous = null;
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        } else {
+            occupied[index >>> 6] |= 1L << index;
+        }
+        slots[index] = timer;
+        size++;
+    }
+
+    /**
+     * Removes a timer from the wheel if it is in a slot. Timers that are due are left in place.
+     *
+     * @param timer the timer
+     */
+    void remove(DefaultTimer timer) {
+        int index = timer.slot;
+        if (index < 0) {
+            return;
+        }
+        DefaultTimer previous = timer.previous;
+        DefaultTimer next = timer.next;
+        if (previous != null) {
+            previous.next = next;
+        } else {
+            slots[index] = next;
+            if (next == null) {
+                occupied[index >>> 6] &= ~(1L << index);
+            }
+        }
+        if (next != null) {
+            next.previous = previous;
+        }
+        timer.slot = -1;
+        timer.previous = null;
+        timer.next = null;
+        size--;
+    }
+
+    /**
+     * Returns the next tick at which the wheel must be advanced: the current tick if timers are due, otherwise the tick at which the next occupied
+     * slot expires or is cascaded.
+     *
+     * @return the tick or Long.MAX_VALUE if the wheel is empty
+     */
+    long nextTick() {
+        return dueHead != null ? now : nextSlot();
+    }
+
+    /**
+     * Advances the wheel to the given tick, queueing timers that expire up to and including it as due.
+     *
+     * @param target the tick
+     */
+    void advance(long target) {
+        for (long next = nextSlot(); next <= target; next = nextSlot()) {
+            now = next;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = level * SLOT_BITS;
+                if ((now & ((1L << shift) - 1)) != 0) {
+                    continue;
+                }
+                // cascade the timers of the slot starting now to lower levels
+                DefaultTimer timer = detach(level * SLOTS + ((int) (now >>> shift) & MASK));
+                while (timer != null) {
+                    DefaultTimer following = timer.next;
+                    add(timer);
+                    timer = following;
+                }
+            }
+            DefaultTimer timer = detach((int) now & MASK);
+            while (timer != null) {
+                DefaultTimer following = timer.next;
+                due(timer);
+                timer = following;
+            }
+        }
+        if (target > now) {
+            now = target;
+        }
+    }
+
+    /**
+     * Returns the tick at which the next occupied slot expires or is cascaded.
+     */
+    private long nextSlot() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * SLOT_BITS;
+            int slot = nextOccupied(level, ((int) (now >>> shift) & MASK) + 1);
+            if (slot >= 0) {
+                long base = now >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+                next = Math.min(next, base | ((long) slot << shift));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Removes the next due timer.
+     *
+     * @return the timer or null if no timers are due
+     */
+    DefaultTimer poll() {
+        DefaultTimer timer = dueHead;
+        if (timer != null) {
+            dueHead = timer.next;
+            if (dueHead == null) {
+                dueTail = null;
+            }
+            timer.next = null;
+        }
+        return timer;
+    }
+
+    /**
+     * Removes all timers, including those that are due.
+     *
+     * @return the timers as a list linked through {@link DefaultTimer#next}
+     */
+    DefaultTimer clear() {
+        for (int index = 0; index < slots.length; index++) {
+            DefaultTimer timer = detach(index);
+            while (timer != null) {
+                DefaultTimer following = timer.next;
+                due(timer);
+                timer = following;
+            }
+        }
+        DefaultTimer head = dueHead;
+        dueHead = null;
+        dueTail = null;
+        return head;
+    }
+
+    private void due(DefaultTimer timer) {
+        timer.slot = -1;
+        timer.previous = null;
+        timer.next = null;
+        if (dueTail != null) {
+            dueTail.next = timer;
+        } else {
+            dueHead = timer;
+        }
+        dueTail = timer;
+    }
+
+    private DefaultTimer detach(int index) {
+        DefaultTimer head = slots[index];
+        if (head == null) {
+            return null;
+        }
+        slots[index] = null;
+        occupied[index >>> 6] &= ~(1L << index);
+        for (DefaultTimer timer = head; timer != null; timer = timer.next) {
+            timer.slot = -1;
+            timer.previous = null;
+            size--;
+        }
+        return head;
+    }
+
+    /**
+     * Returns the first occupied slot of a level at or after the given slot.
+     */
+    private int nextOccupied(int level, int from) {
+        if (from >= SLOTS) {
+            return -1;
+        }
+        int base = level * WORDS;
+        int word = from >>> 6;
+        long bits = occupied[base + word] & (-1L << from);
+        for (; ; ) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == WORDS) {
+                return -1;
+            }
+            bits = occupied[base + word];
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the number of work items waiting to start in a {@link DefaultWorkManager} and counts the work that was rejected, dropped or run by the
+ * caller as a result.
+ */
+final class AdmissionControl {
+    private final int limit;
+    private final AdmissionPolicy policy;
+    private final long timeout;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object lock = new Object();
+    private volatile int blocked;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param limit   the maximum number of work items waiting to start
+     * @param policy  the policy applied when the limit is reached
+     * @param timeout the time in milliseconds to block for when the policy is {@link AdmissionPolicy#BLOCK}
+     */
+    AdmissionControl(int limit, AdmissionPolicy policy, long timeout) {
+        this.limit = limit;
+        this.policy = policy;
+        this.timeout = timeout;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    AdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Reserves space for the given number of work items if it is available.
+     *
+     * @param count the number of work items
+     * @return true if the space was reserved
+     */
+    boolean tryAdmit(int count) {
+        for (; ; ) {
+            int current = pending.get();
+            if (current + count > limit) {
+                return false;
+            }
+            if (pending.compareAndSet(current, current + count)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Blocks until space is available for the given number of work items or the admission timeout elapses.
+     *
+     * @param count the number of work items
+     * @return true if the space was reserved
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    boolean awaitAdmit(int count) throws InterruptedException {
+        if (count > limit) {
+            return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (lock) {
+            blocked++;
+            try {
+                while (!tryAdmit(count)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            } finally {
+                blocked--;
+            }
+        }
+    }
+
+    /**
+     * Releases the space held by a work item that has left the queue, waking a blocked scheduling thread if there is one.
+     */
+    void release() {
+        pending.decrementAndGet();
+        if (blocked > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    int getPending() {
+        return pending.get();
+    }
+
+    void rejected(int count) {
+        rejected.add(count);
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void callerRuns(int count) {
+        callerRuns.add(count);
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the work items scheduled with affinity keys that map to it one at a time, in the order they were scheduled. Only the item at the head
+ * of the lane is dispatched to the scheduler; the next item is dispatched when the scheduler is done with it, so items in different lanes run in
+ * parallel while items in the same lane never overlap.
+ */
+final class AffinityLane {
+    private final WorkScheduler scheduler;
+    private final ConcurrentLinkedQueue<DefaultWorkItem> pending = new ConcurrentLinkedQueue<DefaultWorkItem>();
+    // the number of items in the lane, including the item that has been dispatched
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param scheduler the scheduler work items are dispatched to
+     */
+    AffinityLane(WorkScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds a work item to the lane, dispatching it if the lane is empty.
+     *
+     * @param item the work item
+     */
+    void execute(DefaultWorkItem item) {
+        item.setLane(this);
+        pending.offer(item);
+        if (count.getAndIncrement() == 0) {
+            dispatchNext();
+        }
+    }
+
+    /**
+     * Called when the scheduler is done with the dispatched work item, either because it has run or because it was removed from the scheduler.
+     * Dispatches the next work item, if any.
+     */
+    void next() {
+        if (count.decrementAndGet() > 0) {
+            dispatchNext();
+        }
+    }
+
+    /**
+     * Returns the number of work items waiting in the lane, excluding the item that has been dispatched.
+     *
+     * @return the number of waiting work items
+     */
+    int getWaitingCount() {
+        return Math.max(0, count.get() - 1);
+    }
+
+    private void dispatchNext() {
+        // items are queued before the count is incremented and only one thread dispatches at a time, so an item is always available
+        scheduler.execute(pending.poll());
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import commonj.work.WorkItem;
+
+/**
+ * Wakes a thread waiting in {@link WorkItems#waitForAll} or {@link WorkItems#waitForAny}. A single signal is registered with
+ * every work item being waited on, so each completion costs a constant amount of work regardless of how many items are waited on, and the waiting
+ * thread is woken once rather than on every completion.
+ * <p/>
+ * A signal for all work items counts down the number of registered items that have not completed and unparks the waiter when it reaches zero. A
+ * signal for any work item records completed items in a queue and unparks the waiter on the first completion.
+ */
+final class CompletionSignal extends CompletionObserver {
+    private final Thread waiter;
+    private final AtomicInteger remaining;
+    private final ConcurrentLinkedQueue<WorkItem> completed;
+    private final AtomicInteger signalled = new AtomicInteger();
+    private volatile boolean closed;
+
+    private CompletionSignal(int count, boolean any) {
+        this.waiter = Thread.currentThread();
+        this.remaining = new AtomicInteger(count);
+        this.completed = any ? new ConcurrentLinkedQueue<WorkItem>() : null;
+    }
+
+    /**
+     * Creates a signal used to wait for all of the given number of work items to complete. The count is an upper bound that is corrected using
+     * {@link #unregistered(int)} once the work items have been registered.
+     *
+     * @param count the number of work items
+     * @return the signal
+     */
+    static CompletionSignal forAll(int count) {
+        return new CompletionSignal(count, false);
+    }
+
+    /**
+     * Creates a signal used to wait for any registered work item to complete.
+     *
+     * @return the signal
+     */
+    static CompletionSignal forAny() {
+        return new CompletionSignal(0, true);
+    }
+
+    public void completed(WorkItem item) {
+        if (closed) {
+            return;
+        }
+        if (completed != null) {
+            completed.offer(item);
+            if (signalled.compareAndSet(0, 1)) {
+                LockSupport.unpark(waiter);
+            }
+        } else if (remaining.decrementAndGet() == 0) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Records that the given number of work items counted when the signal was created were not registered, either because they had already
+     * completed or because they are not {@link DefaultWorkItem}s.
+     *
+     * @param count the number of work items
+     */
+    void unregistered(int count) {
+        remaining.addAndGet(-count);
+    }
+
+    /**
+     * Counts down a work item that was not registered with the signal and has since completed.
+     */
+    void countDown() {
+        remaining.decrementAndGet();
+    }
+
+    /**
+     * Returns true if the wait is satisfied: all registered work items have completed or, for a signal for any work item, at least one has.
+     *
+     * @return true if the wait is satisfied
+     */
+    boolean isSatisfied() {
+        return completed != null ? signalled.get() != 0 : remaining.get() <= 0;
+    }
+
+    /**
+     * Parks the waiting thread until the wait is satisfied, the deadline passes or the given interval elapses.
+     *
+     * @param deadline the deadline in nanoseconds
+     * @param interval the maximum time to park in nanoseconds
+     * @return true if the wait is satisfied
+     * @throws InterruptedException if the thread is interrupted
+     */
+    boolean await(long deadline, long interval) throws InterruptedException {
+        long end = deadline - System.nanoTime() > interval ? System.nanoTime() + interval : deadline;
+        while (!isSatisfied()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Drains the work items that completed after registration.
+     *
+     * @param items the collection to add the completed work items to
+     */
+    void drainTo(Collection<WorkItem> items) {
+        for (WorkItem item = completed.poll(); item != null; item = completed.poll()) {
+            items.add(item);
+        }
+    }
+
+    /**
+     * Closes the signal so later completions are ignored.
+     */
+    void close() {
+        closed = true;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import commonj.work.Work;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkRejectedException;
+
+/**
+ * A WorkListener that exposes the outcome of the Work it is scheduled with as a CompletionStage. The stage completes normally with the completed
+ * Work when {@link #workCompleted} is called, and exceptionally with the {@link WorkException} when the Work fails or {@link #workRejected} is
+ * called. Events are forwarded to an optional delegate listener before the stage is completed.
+ * <p/>
+ * Use this listener with any WorkManager implementation, including ones that return RemoteWorkItems. Non-async dependent stages run on the thread
+ * that delivers the completion event.
+ */
+public class CompletionStageWorkListener implements WorkListener {
+    private final Work work;
+    private final WorkListener delegate;
+    private final CompletableFuture<Work> future = new CompletableFuture<Work>();
+
+    /**
+     * Constructor.
+     *
+     * @param work the Work the listener is scheduled with. It is used as the result if the work item does not return the completed Work when the
+     *             completion event is delivered.
+     */
+    public CompletionStageWorkListener(Work work) {
+        this(work, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param work     the Work the listener is scheduled with
+     * @param delegate the listener to forward events to or null
+     */
+    public CompletionStageWorkListener(Work work, WorkListener delegate) {
+        this.work = work;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the stage completed when the Work completes or is rejected.
+     *
+     * @return the stage
+     */
+    public CompletionStage<Work> getStage() {
+        return future;
+    }
+
+    public void workAccepted(WorkEvent we) {
+        if (delegate != null) {
+            delegate.workAccepted(we);
+        }
+    }
+
+    public void workRejected(WorkEvent we) {
+        try {
+            if (delegate != null) {
+                delegate.workRejected(we);
+            }
+        } finally {
+            WorkException e = we.getException();
+            future.completeExceptionally(e != null ? e : new WorkRejectedException("Work rejected: " + work));
+        }
+    }
+
+    public void workStarted(WorkEvent we) {
+        if (delegate != null) {
+            delegate.workStarted(we);
+        }
+    }
+
+    public void workCompleted(WorkEvent we) {
+        try {
+            if (delegate != null) {
+                delegate.workCompleted(we);
+            }
+        } finally {
+            WorkException e = we.getException();
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                complete(we.getWorkItem());
+            }
+        }
+    }
+
+    private void complete(WorkItem item) {
+        try {
+            Work result = item != null ? item.getResult() : null;
+            future.complete(result != null ? result : work);
+        } catch (WorkException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Adjusts the concurrency limit of a {@link WorkScheduler} from the observed queue wait and run time of work, using a gradient controller.
+ * <p/>
+ * At each interval, the average run time of the work completed during the interval is compared with a slowly moving long-term average. A run
+ * time above the long-term average indicates that work is contending for the CPU or a downstream resource, and the limit is reduced in proportion.
+ * While work is waiting to start, the admitted workers are busy, as derived from Little's law, and run time is stable, the limit is allowed to
+ * grow by the square root of the current limit, so that work blocked on I/O does not starve the queue. The growth is scaled by the ratio of the
+ * average queue wait during the interval to its own long-term average, so the limit grows faster while queue wait is building up and slower
+ * while it is draining. Changes are smoothed and kept within the configured bounds.
+ */
+final class ConcurrencyLimiter implements Runnable {
+    private static final double SMOOTHING = 0.2;
+    private static final double LONG_TERM_WEIGHT = 0.05;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double GROWTH_GRADIENT = 0.9;
+    private static final double BUSY_UTILIZATION = 0.8;
+    private static final double MIN_QUEUE_PRESSURE = 0.5;
+    private static final double MAX_QUEUE_PRESSURE = 2.0;
+
+    private final WorkScheduler scheduler;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long interval;
+    private final Thread thread;
+
+    private final LongAdder completions = new LongAdder();
+    private final LongAdder runTime = new LongAdder();
+    private final LongAdder queueWait = new LongAdder();
+    private final LongAdder increases = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+
+    private double estimate;
+    private double longTermRunTime;
+    private double longTermQueueWait;
+    private volatile int limit;
+    private volatile double gradient = 1.0;
+    private volatile long averageQueueWait;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param name      the name of the controller thread
+     * @param scheduler the scheduler whose limit is adjusted
+     * @param minLimit  the lower bound of the limit
+     * @param maxLimit  the upper bound of the limit
+     * @param initial   the initial limit
+     * @param interval  the adjustment interval in milliseconds
+     */
+    ConcurrencyLimiter(String name, WorkScheduler scheduler, int minLimit, int maxLimit, int initial, long interval) {
+        this.scheduler = scheduler;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.limit = Math.max(minLimit, Math.min(initial, maxLimit));
+        this.estimate = limit;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Applies the initial limit and starts adjusting it.
+     */
+    void start() {
+        scheduler.setConcurrencyLimit(limit);
+        thread.start();
+    }
+
+    /**
+     * Stops adjusting the limit.
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Records the latencies of a completed work item.
+     *
+     * @param queueWait the time from the work item being accepted to being started, in nanoseconds
+     * @param runTime   the time from the work item being started to being completed, in nanoseconds
+     */
+    void record(long queueWait, long runTime) {
+        completions.increment();
+        this.runTime.add(runTime);
+        this.queueWait.add(queueWait);
+    }
+
+    public void run() {
+        long last = System.nanoTime();
+        while (!stopped) {
+            LockSupport.parkNanos(this, interval);
+            long now = System.nanoTime();
+            if (now - last < interval) {
+                // woken early
+                continue;
+            }
+            adjust(now - last);
+            last = now;
+        }
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    double getGradient() {
+        return gradient;
+    }
+
+    long getAverageQueueWait() {
+        return averageQueueWait;
+    }
+
+    long getIncreases() {
+        return increases.sum();
+    }
+
+    long getDecreases() {
+        return decreases.sum();
+    }
+
+    /**
+     * Computes a new limit from the work completed during the elapsed interval.
+     *
+     * @param elapsed the elapsed time in nanoseconds
+     */
+    private void adjust(long elapsed) {
+        long count = completions.sumThenReset();
+        long totalRunTime = runTime.sumThenReset();
+        long totalQueueWait = queueWait.sumThenReset();
+        int current = limit;
+        boolean waiting = scheduler.getQueuedCount() > 0;
+        double allowance = 0;
+        if (count == 0) {
+            // nothing completed: either there is no work or all admitted workers are blocked
+            gradient = 1.0;
+            if (!waiting) {
+                return;
+            }
+            allowance = Math.sqrt(current);
+        } else {
+            double shortTermRunTime = (double) totalRunTime / count;
+            double shortTermQueueWait = (double) totalQueueWait / count;
+            averageQueueWait = totalQueueWait / count;
+            longTermRunTime = longTermAverage(longTermRunTime, shortTermRunTime);
+            double queuePressure = 1.0;
+            if (longTermQueueWait > 0) {
+                queuePressure = Math.max(MIN_QUEUE_PRESSURE, Math.min(MAX_QUEUE_PRESSURE, shortTermQueueWait / longTermQueueWait));
+            }
+            longTermQueueWait = longTermAverage(longTermQueueWait, shortTermQueueWait);
+            gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longTermRunTime / shortTermRunTime));
+            // Little's law: the average number of busy workers is the throughput multiplied by the average run time
+            double busy = (double) totalRunTime / elapsed;
+            if (waiting && busy >= current * BUSY_UTILIZATION && gradient >= GROWTH_GRADIENT) {
+                allowance = Math.sqrt(current) * queuePressure;
+            }
+        }
+        double target = current * gradient + allowance;
+        estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1 - SMOOTHING) + target * SMOOTHING));
+        int updated = (int) Math.round(estimate);
+        if (updated != current) {
+            if (updated > current) {
+                increases.increment();
+            } else {
+                decreases.increment();
+            }
+            limit = updated;
+            scheduler.setConcurrencyLimit(updated);
+        }
+    }
+
+    /**
+     * Folds a short-term average into a slowly moving long-term average.
+     *
+     * @param longTerm  the long-term average or zero if there is none yet
+     * @param shortTerm the short-term average
+     * @return the updated long-term average
+     */
+    private static double longTermAverage(double longTerm, double shortTerm) {
+        if (longTerm == 0) {
+            return shortTerm;
+        }
+        longTerm = longTerm * (1 - LONG_TERM_WEIGHT) + shortTerm * LONG_TERM_WEIGHT;
+        if (longTerm > shortTerm * 2) {
+            // the short-term average has dropped well below the long-term average, so let the average catch up
+            longTerm *= 0.9;
+        }
+        return longTerm;
+    }
+
+}
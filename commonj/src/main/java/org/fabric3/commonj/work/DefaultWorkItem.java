@@ -0,0 +1,676 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import commonj.work.RemoteWorkItem;
+import commonj.work.Work;
+import commonj.work.WorkCompletedException;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+
+/**
+ * The WorkItem returned by a {@link DefaultWorkManager}. A work item drives its Work through the accepted, started and completed (or rejected)
+ * states and notifies the WorkListener, if any, of each transition.
+ * <p/>
+ * Since the spec requires a RemoteWorkItem to be returned for serializable Work, all work items implement RemoteWorkItem. Work is always executed
+ * in the local JVM, so the pinned WorkManager is the WorkManager that scheduled the work.
+ */
+public class DefaultWorkItem implements RemoteWorkItem, ObservableWorkItem, Runnable {
+    private static final AtomicIntegerFieldUpdater<DefaultWorkItem> STATUS = AtomicIntegerFieldUpdater.newUpdater(DefaultWorkItem.class, "status");
+    private static final AtomicReferenceFieldUpdater<DefaultWorkItem, Observer> OBSERVERS =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultWorkItem.class, Observer.class, "observers");
+    private static final AtomicReferenceFieldUpdater<DefaultWorkItem, Work> WORK =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultWorkItem.class, Work.class, "work");
+    private static final AtomicIntegerFieldUpdater<DefaultWorkItem> QUEUE_SPACE =
+            AtomicIntegerFieldUpdater.newUpdater(DefaultWorkItem.class, "queueSpace");
+    private static final AtomicIntegerFieldUpdater<DefaultWorkItem> CANCELLATION =
+            AtomicIntegerFieldUpdater.newUpdater(DefaultWorkItem.class, "cancellation");
+    private static final Observer DONE = new Observer(null, null);
+
+    // queue space states
+    private static final int NO_SPACE = 0;
+    private static final int SPACE_HELD = 1;
+    private static final int SPACE_RELEASED = 2;
+
+    // cancellation states of running work: INTERRUPTING lasts only while the thread is interrupted, INTERRUPTED records that an interrupt
+    // was delivered by cancel and must be cleared when the work returns, and INTERRUPT_PENDING records that cancel found no runner because the
+    // running thread had not yet published itself, in which case that thread interrupts itself
+    private static final int NOT_CANCELLED = 0;
+    private static final int CANCELLED = 1;
+    private static final int INTERRUPTING = 2;
+    private static final int INTERRUPTED = 3;
+    private static final int FINISHED = 4;
+    private static final int INTERRUPT_PENDING = 5;
+
+    private final WorkListener listener;
+    private final DefaultWorkManager workManager;
+    private final ClassLoader classLoader;
+    private final long sequence;
+    private final long rank;
+
+    private volatile Work work;
+    private volatile int status;
+    private volatile WorkException exception;
+    private volatile Observer observers;
+    private volatile int queueSpace;
+    private volatile int cancellation;
+    private volatile Thread runner;
+    private WorkBatch batch;
+    private AffinityLane lane;
+    private boolean expires;
+    private long deadline;
+    private long acceptedAt;
+    private Object idempotencyKey;
+    private long completedAt;
+
+    DefaultWorkItem(Work work, WorkListener listener, DefaultWorkManager workManager) {
+        this.work = work;
+        this.listener = listener;
+        this.workManager = workManager;
+        this.classLoader = Thread.currentThread().getContextClassLoader();
+        this.sequence = workManager.nextSequence();
+        this.rank = workManager.rank(work);
+    }
+
+    /**
+     * Returns the completed Work.
+     *
+     * @throws ResultReleasedException if the result has been released under the result retention policy of the work manager
+     */
+    public Work getResult() throws WorkException {
+        WorkException exception = this.exception;
+        if (exception != null) {
+            throw exception;
+        }
+        if (status != WorkEvent.WORK_COMPLETED) {
+            return null;
+        }
+        Work work = this.work;
+        if (work == null) {
+            throw new ResultReleasedException("The result of the work has been released: " + this);
+        }
+        return work;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void release() {
+        Work work = this.work;
+        if (work != null) {
+            work.release();
+        }
+    }
+
+    public WorkManager getPinnedWorkManager() {
+        return workManager;
+    }
+
+    /**
+     * Returns the Work this item represents.
+     *
+     * @return the Work or null if the result has been released
+     */
+    public Work getWork() {
+        return work;
+    }
+
+    /**
+     * Returns the listener notified of the progress of the work.
+     *
+     * @return the listener or null
+     */
+    WorkListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Returns true if the work has completed or was rejected.
+     *
+     * @return true if the work has completed or was rejected
+     */
+    public boolean isDone() {
+        int status = this.status;
+        return status == WorkEvent.WORK_COMPLETED || status == WorkEvent.WORK_REJECTED;
+    }
+
+    /**
+     * Executes the Work if it is still in the accepted state.
+     */
+    public void run() {
+        if (releaseQueueSpace()) {
+            workManager.dequeued();
+        }
+        if (idempotencyKey != null) {
+            // the work is no longer pending, so later duplicates must be queued
+            workManager.removePending(idempotencyKey, this);
+        }
+        try {
+            if (expires && isExpired()) {
+                workManager.expired(this);
+                return;
+            }
+            if (!STATUS.compareAndSet(this, WorkEvent.WORK_ACCEPTED, WorkEvent.WORK_STARTED)) {
+                // rejected, cancelled or already run by another thread
+                return;
+            }
+            Thread thread = Thread.currentThread();
+            // published only by the thread that started the work, so that a stale queue entry can never redirect an interrupt
+            runner = thread;
+            interruptIfPending(thread);
+            workManager.getCounters().started();
+            boolean timed = workManager.isTiming();
+            long started = timed ? System.nanoTime() : 0;
+            Work work = this.work;
+            ClassLoader old = thread.getContextClassLoader();
+            thread.setContextClassLoader(classLoader);
+            try {
+                fire(WorkEvent.WORK_STARTED, null);
+                fireCoalescedStarted();
+                WorkException failure = null;
+                try {
+                    work.run();
+                } catch (Throwable e) {
+                    failure = new WorkCompletedException(e.getMessage(), e);
+                }
+                if (finish()) {
+                    failure = new WorkCancelledException("Work cancelled: " + work, failure != null ? failure.getCause() : null);
+                }
+                if (timed) {
+                    workManager.recordLatency(work, started - acceptedAt, System.nanoTime() - started);
+                }
+                exception = failure;
+                status = WorkEvent.WORK_COMPLETED;
+                workManager.getCounters().completed(failure != null);
+                fire(WorkEvent.WORK_COMPLETED, failure);
+                signal();
+                workManager.completed(this);
+            } finally {
+                thread.setContextClassLoader(old);
+            }
+        } finally {
+            if (lane != null) {
+                lane.next();
+            }
+        }
+    }
+
+    /**
+     * Cancels the work. Work that has not started is rejected immediately: its status becomes {@link WorkEvent#WORK_REJECTED}, the listener is
+     * notified that it was rejected with a {@link WorkCancelledException}, and any queue space it holds is released. The work item is left in
+     * place in the queue and skipped when it is dequeued, so cancellation takes constant time, and work scheduled with an affinity key still
+     * allows the work queued after it to proceed.
+     * <p/>
+     * Running work is signalled to stop by calling {@link Work#release()} and, if requested, interrupting the thread running it. Work that stops
+     * in response completes normally from the point of view of the work manager, with its status becoming {@link WorkEvent#WORK_COMPLETED}
+     * and {@link #getResult()} throwing a WorkCancelledException. An interrupt delivered by this method that the work does not consume is cleared
+     * before the thread runs other work; an interrupt the thread already had pending is left in place. Work#release() is called on the
+     * cancelling thread after the interrupt, so a slow release does not hold up the thread running the work.
+     *
+     * @param mayInterruptIfRunning true if the thread running the work should be interrupted
+     * @return true if the work was cancelled, false if it had already completed, was rejected or was cancelled
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (status == WorkEvent.WORK_ACCEPTED && reject(new WorkCancelledException("Work cancelled: " + this))) {
+            if (releaseQueueSpace()) {
+                workManager.dequeued();
+            }
+            workManager.cancelled();
+            return true;
+        }
+        if (status != WorkEvent.WORK_STARTED
+                || !CANCELLATION.compareAndSet(this, NOT_CANCELLED, mayInterruptIfRunning ? INTERRUPTING : CANCELLED)) {
+            return false;
+        }
+        if (mayInterruptIfRunning) {
+            boolean delivered = false;
+            boolean pending = false;
+            try {
+                // the runner is null before the running thread has published itself and once the work has returned, and an interrupt that is
+                // already pending is not the work item's to clear
+                Thread thread = runner;
+                if (thread == null) {
+                    pending = true;
+                } else if (!thread.isInterrupted()) {
+                    thread.interrupt();
+                    delivered = true;
+                }
+            } finally {
+                cancellation = delivered ? INTERRUPTED : pending ? INTERRUPT_PENDING : CANCELLED;
+            }
+        }
+        Work work = this.work;
+        if (work != null) {
+            try {
+                work.release();
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+        workManager.cancelled();
+        return true;
+    }
+
+    /**
+     * Returns true if the work was cancelled, whether before it started or while it was running.
+     *
+     * @return true if the work was cancelled
+     */
+    public boolean isCancelled() {
+        int cancellation = this.cancellation;
+        return (cancellation != NOT_CANCELLED && cancellation != FINISHED) || exception instanceof WorkCancelledException;
+    }
+
+    /**
+     * Returns a stage completed with the Work when it completes, or exceptionally with the {@link WorkException} if the Work fails or is
+     * rejected. Non-async dependent stages run on the thread that completes the work, or on the calling thread if the work is already done.
+     *
+     * @return the stage
+     */
+    public CompletionStage<Work> toCompletionStage() {
+        return WorkStages.toCompletionStage(this);
+    }
+
+    /**
+     * Orders work items by the order in which they should be started. Under {@link ExecutionMode#PRIORITY}, items are ordered by their time of
+     * scheduling, brought forward by their priority multiplied by the aging interval; otherwise, and between items of equal rank, items are
+     * ordered by the sequence in which they were scheduled.
+     */
+    public int compareTo(Object o) {
+        if (o == this) {
+            return 0;
+        }
+        if (o instanceof DefaultWorkItem) {
+            DefaultWorkItem item = (DefaultWorkItem) o;
+            if (rank != item.rank) {
+                return rank < item.rank ? -1 : 1;
+            }
+            long other = item.sequence;
+            return sequence < other ? -1 : (sequence == other ? 0 : 1);
+        }
+        int hash = System.identityHashCode(this);
+        int other = System.identityHashCode(o);
+        return hash < other ? -1 : (hash == other ? 0 : 1);
+    }
+
+    public String toString() {
+        Work work = this.work;
+        return "WorkItem[" + (work != null ? work : "released") + ", status=" + status + "]";
+    }
+
+    /**
+     * Marks the work as accepted.
+     *
+     * @param notify true if the listener should be notified
+     */
+    void accept(boolean notify) {
+        if (workManager.isTiming()) {
+            acceptedAt = System.nanoTime();
+        }
+        workManager.getCounters().accepted();
+        status = WorkEvent.WORK_ACCEPTED;
+        if (notify) {
+            fire(WorkEvent.WORK_ACCEPTED, null);
+        }
+    }
+
+    /**
+     * Rejects the work if it has not been started.
+     *
+     * @param e the reason the work was rejected
+     * @return true if the work was rejected, false if it had already started or finished
+     */
+    boolean reject(WorkException e) {
+        int current = status;
+        if ((current != 0 && current != WorkEvent.WORK_ACCEPTED) || !STATUS.compareAndSet(this, current, WorkEvent.WORK_REJECTED)) {
+            return false;
+        }
+        workManager.getCounters().rejected(current == WorkEvent.WORK_ACCEPTED);
+        if (idempotencyKey != null) {
+            workManager.removePending(idempotencyKey, this);
+        }
+        exception = e;
+        fire(WorkEvent.WORK_REJECTED, e);
+        signal();
+        return true;
+    }
+
+    /**
+     * Marks the work item as holding queue space that must be released when it leaves the queue.
+     */
+    void setAdmitted() {
+        queueSpace = SPACE_HELD;
+    }
+
+    /**
+     * Gives up the queue space held by the work item, if any. Space is released once, either when the work item leaves the queue or when it is
+     * cancelled.
+     *
+     * @return true if the work item held queue space that must now be released
+     */
+    boolean releaseQueueSpace() {
+        return queueSpace == SPACE_HELD && QUEUE_SPACE.compareAndSet(this, SPACE_HELD, SPACE_RELEASED);
+    }
+
+    /**
+     * Runs the work on the calling thread if it has not been started and may be started out of order, which excludes daemon work, work ordered
+     * by an affinity lane and work holding queue space. The work item remains queued and is skipped when it is dequeued.
+     *
+     * @return true if the work item was run, although the work may have been started concurrently by another thread
+     */
+    boolean tryRun() {
+        Work work = this.work;
+        if (status != WorkEvent.WORK_ACCEPTED || queueSpace != NO_SPACE || lane != null || work == null || work.isDaemon()) {
+            return false;
+        }
+        run();
+        return true;
+    }
+
+    /**
+     * Rejects a work item that has been removed from the scheduler before it could run.
+     *
+     * @param e the reason the work was rejected
+     * @return true if the work was rejected, false if it had already been rejected
+     */
+    boolean discard(WorkException e) {
+        try {
+            return reject(e);
+        } finally {
+            if (lane != null) {
+                lane.next();
+            }
+        }
+    }
+
+    /**
+     * Sets the time by which the work must be started.
+     *
+     * @param deadline the deadline in terms of {@link System#nanoTime()}
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+        expires = true;
+    }
+
+    /**
+     * Returns true if the work has a deadline that has passed.
+     *
+     * @return true if the work has a deadline that has passed
+     */
+    boolean isExpired() {
+        return expires && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Releases the result of the completed work by calling {@link Work#release()} and clearing the reference to the Work.
+     *
+     * @return true if the result was released, false if it had already been released
+     */
+    boolean releaseResult() {
+        Work work = WORK.getAndSet(this, null);
+        if (work == null) {
+            return false;
+        }
+        try {
+            work.release();
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+        return true;
+    }
+
+    void setCompletedAt(long completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    long getCompletedAt() {
+        return completedAt;
+    }
+
+    /**
+     * Sets the idempotency key under which the work item is registered as pending.
+     *
+     * @param idempotencyKey the key
+     */
+    void setIdempotencyKey(Object idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    /**
+     * Notifies a listener of a duplicate submission coalesced with this work item. The listener receives the same sequence of events as the
+     * listener of the original submission: that the work was accepted, that it started, if it does, and its outcome.
+     *
+     * @param listener the listener
+     */
+    void addListener(WorkListener listener) {
+        fire(listener, WorkEvent.WORK_ACCEPTED, null);
+        CoalescedListener observer = new CoalescedListener(listener);
+        if (!addObserver(observer)) {
+            observer.completed(this);
+        }
+    }
+
+    /**
+     * Associates the work item with the affinity lane that dispatched it.
+     *
+     * @param lane the lane
+     */
+    void setLane(AffinityLane lane) {
+        this.lane = lane;
+    }
+
+    /**
+     * Associates the work item with the batch it was scheduled in.
+     *
+     * @param batch the batch
+     */
+    void setBatch(WorkBatch batch) {
+        this.batch = batch;
+    }
+
+    public boolean addObserver(CompletionObserver observer) {
+        for (; ; ) {
+            Observer head = observers;
+            if (head == DONE) {
+                return false;
+            }
+            Observer next = head;
+            while (next != null && next.observer.isClosed()) {
+                // unlink observers of waits that have timed out
+                next = next.next;
+            }
+            if (OBSERVERS.compareAndSet(this, head, new Observer(observer, next))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Called by the running thread once it has published itself as the runner. Delivers an interrupt requested by a cancellation that found no
+     * runner, waiting first for a concurrent cancellation to settle.
+     *
+     * @param thread the running thread
+     */
+    private void interruptIfPending(Thread thread) {
+        while (cancellation == INTERRUPTING) {
+            Thread.yield();
+        }
+        if (cancellation == INTERRUPT_PENDING && !thread.isInterrupted() && CANCELLATION.compareAndSet(this, INTERRUPT_PENDING, INTERRUPTED)) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Called by the running thread when the work returns. Waits for a concurrent cancellation to finish interrupting the thread, which takes only
+     * the call to Thread#interrupt(), and clears an interrupt delivered by the cancellation so that it does not affect later work.
+     *
+     * @return true if the work was cancelled while running
+     */
+    private boolean finish() {
+        runner = null;
+        if (CANCELLATION.compareAndSet(this, NOT_CANCELLED, FINISHED)) {
+            return false;
+        }
+        while (cancellation == INTERRUPTING) {
+            Thread.yield();
+        }
+        if (cancellation == INTERRUPTED) {
+            Thread.interrupted();
+        }
+        return true;
+    }
+
+    /**
+     * Notifies the listeners of duplicate submissions coalesced with this work item that the work has started.
+     */
+    private void fireCoalescedStarted() {
+        for (Observer next = observers; next != null; next = next.next) {
+            if (next.observer instanceof CoalescedListener) {
+                ((CoalescedListener) next.observer).started(this);
+            }
+        }
+    }
+
+    /**
+     * Notifies registered observers and the batch, if any, that the work is done.
+     */
+    private void signal() {
+        Observer head = OBSERVERS.getAndSet(this, DONE);
+        for (Observer next = head; next != null; next = next.next) {
+            try {
+                next.observer.completed(this);
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+        if (batch != null) {
+            batch.itemCompleted();
+        }
+    }
+
+    private void fire(int type, WorkException e) {
+        if (listener != null) {
+            fire(listener, type, e);
+        }
+    }
+
+    private void fire(WorkListener listener, int type, WorkException e) {
+        ReusableWorkEvent reusable = workManager.isReuseEvents() ? ReusableWorkEvent.acquire(type, this, e) : null;
+        WorkEvent event = reusable != null ? reusable : new DefaultWorkEvent(type, this, e);
+        try {
+            switch (type) {
+            case WorkEvent.WORK_ACCEPTED:
+                listener.workAccepted(event);
+                break;
+            case WorkEvent.WORK_REJECTED:
+                listener.workRejected(event);
+                break;
+            case WorkEvent.WORK_STARTED:
+                listener.workStarted(event);
+                break;
+            case WorkEvent.WORK_COMPLETED:
+                listener.workCompleted(event);
+                break;
+            }
+        } catch (RuntimeException ex) {
+            // a misbehaving listener must not affect the work or the thread dispatching it
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+        } finally {
+            if (reusable != null) {
+                reusable.release();
+            }
+        }
+    }
+
+    /**
+     * Notifies the listener of a duplicate submission coalesced with a work item. The listener is notified that the work started either when it
+     * starts or, if the listener was added after the work started, before it is notified that the work completed.
+     */
+    private static final class CoalescedListener extends CompletionObserver {
+        private static final AtomicIntegerFieldUpdater<CoalescedListener> STARTED =
+                AtomicIntegerFieldUpdater.newUpdater(CoalescedListener.class, "started");
+
+        private final WorkListener listener;
+        private volatile int started;
+
+        private CoalescedListener(WorkListener listener) {
+            this.listener = listener;
+        }
+
+        public void completed(WorkItem item) {
+            DefaultWorkItem workItem = (DefaultWorkItem) item;
+            if (workItem.status == WorkEvent.WORK_COMPLETED) {
+                started(workItem);
+            }
+            workItem.fire(listener, workItem.status, workItem.exception);
+        }
+
+        private void started(DefaultWorkItem item) {
+            if (STARTED.compareAndSet(this, 0, 1)) {
+                item.fire(listener, WorkEvent.WORK_STARTED, null);
+            }
+        }
+    }
+
+    /**
+     * A node in the stack of observers registered with a work item.
+     */
+    private static final class Observer {
+        private final CompletionObserver observer;
+        private final Observer next;
+
+        private Observer(CompletionObserver observer, Observer next) {
+            this.observer = observer;
+            this.next = next;
+        }
+    }
+
+}
@@ -0,0 +1,960 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import commonj.work.Work;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+import commonj.work.WorkRejectedException;
+
+/**
+ * A WorkManager that executes non-daemon work on a fixed set of worker threads using per-worker queues and work stealing or, when configured with
+ * {@link ExecutionMode#PRIORITY}, a shared queue ordered by priority. When configured with {@link ExecutionMode#VIRTUAL_THREADS}, non-daemon
+ * work is executed on one virtual thread per work item. Daemon work is long-lived and is not taken from the pool; it is
+ * executed on a dedicated platform thread and released when the work manager is shut down.
+ * <p/>
+ * Work scheduled with an affinity key is executed in the order it was scheduled with respect to other work with the same key, while work with
+ * different keys runs in parallel. Work scheduled with a deadline is rejected instead of started if it is still queued when the deadline passes.
+ * Work items can be {@link DefaultWorkItem#cancel(boolean) cancelled}, which rejects queued work in constant time and signals running work to
+ * stop.
+ * <p/>
+ * The context classloader of the scheduling thread is propagated to the thread executing the work and its listener callbacks.
+ * <p/>
+ * With coalescing enabled, scheduling {@link IdempotentWork} whose key matches that of work waiting to start returns the work item of the waiting
+ * work rather than queueing a redundant execution.
+ * <p/>
+ * Work running on a worker thread can {@link #fork(Work) fork} child work onto the worker's local queue and {@link #join(WorkItem) join} it, in
+ * which case the worker runs queued work while it waits rather than parking.
+ * <p/>
+ * If a result retention time or count is configured, the results of completed work are released once they exceed it, so long-running jobs do not
+ * accumulate completed Work.
+ * <p/>
+ * With adaptive concurrency enabled, the number of worker threads that may run work concurrently is adjusted at runtime from the observed run time
+ * and queueing of work; see {@link WorkManagerConfiguration#setAdaptiveConcurrency(boolean)}.
+ * <p/>
+ * Unless disabled, the queue wait and run time of work is recorded in histograms for the work manager as a whole and per Work class, which are
+ * available through the {@link WorkManagerMXBean} interface.
+ */
+public class DefaultWorkManager implements WorkManager, WorkManagerMXBean {
+    private static final long MAX_PRIORITY_BOOST = Long.MAX_VALUE / 4;
+    private static final long MAX_DEADLINE = Long.MAX_VALUE / 4;
+    private static final LatencySnapshot NO_LATENCIES = new LatencySnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private static final ClassValue<Boolean> ENTERPRISE_BEAN = new ClassValue<Boolean>() {
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> clazz = type; clazz != null; clazz = clazz.getSuperclass()) {
+                if (isEnterpriseBean(clazz)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        private boolean isEnterpriseBean(Class<?> type) {
+            for (Class<?> interfaze : type.getInterfaces()) {
+                if ("javax.ejb.EnterpriseBean".equals(interfaze.getName()) || isEnterpriseBean(interfaze)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    private final String name;
+    private final WorkScheduler scheduler;
+    private final Set<DefaultWorkItem> daemons = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger daemonCount = new AtomicInteger();
+    private final boolean reuseEvents;
+    private final AdmissionControl admission;
+    private final AffinityLane[] lanes;
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final StatisticsCounters counters = new StatisticsCounters();
+    private final ConcurrentHashMap<Object, DefaultWorkItem> pending;
+    private final LongAdder coalesced = new LongAdder();
+    private final ResultRetention retention;
+    private final LatencyMetrics metrics;
+    // null unless latencies are recorded per Work class
+    private final ClassValue<LatencyMetrics> classMetrics;
+    // weakly keyed so that the metrics do not keep the classes of undeployed applications loaded
+    private final Map<Class<?>, LatencyMetrics> metricsByClass = new WeakHashMap<Class<?>, LatencyMetrics>();
+    private final ConcurrencyLimiter limiter;
+    private final boolean timing;
+    private final int parallelism;
+    private final ObjectName objectName;
+    private final boolean prioritized;
+    private final long priorityAging;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a work manager using the default configuration.
+     */
+    public DefaultWorkManager() {
+        this(new WorkManagerConfiguration());
+    }
+
+    /**
+     * Creates a work manager and starts its worker threads.
+     *
+     * @param configuration the work manager configuration
+     * @throws IllegalStateException if virtual threads are configured and the runtime does not support them
+     */
+    public DefaultWorkManager(WorkManagerConfiguration configuration) {
+        name = configuration.getName();
+        reuseEvents = configuration.isReuseEvents();
+        long retentionTime = configuration.getResultRetentionTime();
+        int retentionCount = configuration.getResultRetentionCount();
+        if (retentionTime != Long.MAX_VALUE || retentionCount != Integer.MAX_VALUE) {
+            retention = new ResultRetention(retentionCount, retentionTime);
+        } else {
+            retention = null;
+        }
+        pending = configuration.isCoalescing() ? new ConcurrentHashMap<Object, DefaultWorkItem>() : null;
+        prioritized = configuration.getExecutionMode() == ExecutionMode.PRIORITY;
+        priorityAging = TimeUnit.MILLISECONDS.toNanos(configuration.getPriorityAging());
+        int queueLimit = configuration.getQueueLimit();
+        if (queueLimit > 0) {
+            admission = new AdmissionControl(queueLimit, configuration.getAdmissionPolicy(), configuration.getAdmissionTimeout());
+        } else {
+            admission = null;
+        }
+        metrics = configuration.isLatencyMetrics() ? new LatencyMetrics() : null;
+        classMetrics = metrics != null && configuration.isWorkClassMetrics() ? new ClassValue<LatencyMetrics>() {
+            protected LatencyMetrics computeValue(Class<?> type) {
+                synchronized (metricsByClass) {
+                    // the value may be computed concurrently, so return the metrics registered first
+                    LatencyMetrics metrics = metricsByClass.get(type);
+                    if (metrics == null) {
+                        metrics = new LatencyMetrics();
+                        metricsByClass.put(type, metrics);
+                    }
+                    return metrics;
+                }
+            }
+        } : null;
+        if (configuration.isNodeAware() && configuration.getExecutionMode() != ExecutionMode.WORK_STEALING) {
+            throw new IllegalArgumentException("Node-aware placement is only supported with work stealing");
+        }
+        if (configuration.isBindWorkers() && !configuration.isNodeAware()) {
+            throw new IllegalArgumentException("Binding workers requires node-aware placement");
+        }
+        scheduler = createScheduler(configuration);
+        parallelism = configuration.getParallelism();
+        if (configuration.isAdaptiveConcurrency()) {
+            if (configuration.getExecutionMode() == ExecutionMode.VIRTUAL_THREADS) {
+                throw new IllegalArgumentException("Adaptive concurrency is not supported with virtual threads");
+            }
+            int min = Math.min(configuration.getMinParallelism(), parallelism);
+            int initial = Math.min(parallelism, Runtime.getRuntime().availableProcessors());
+            limiter = new ConcurrencyLimiter(name + "-limiter", scheduler, min, parallelism, initial, configuration.getAdaptiveInterval());
+        } else {
+            limiter = null;
+        }
+        timing = metrics != null || limiter != null;
+        int stripes = configuration.getAffinityStripes();
+        lanes = new AffinityLane[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new AffinityLane(scheduler);
+        }
+        scheduler.start();
+        if (limiter != null) {
+            limiter.start();
+        }
+        objectName = configuration.isManagementEnabled() ? register() : null;
+    }
+
+    public WorkItem schedule(Work work) throws WorkException, IllegalArgumentException {
+        return schedule(work, null);
+    }
+
+    public WorkItem schedule(Work work, WorkListener listener) throws WorkException, IllegalArgumentException {
+        checkWork(work);
+        return schedule(new DefaultWorkItem(work, listener, this), null);
+    }
+
+    /**
+     * Dispatches Work asynchronously, ordered with respect to other Work scheduled with the same affinity key. Work with the same key is started
+     * in the order it was scheduled, each item after the previous one has completed or was rejected; work with different keys may run in
+     * parallel. Keys are striped across a fixed number of lanes, so work with different keys may occasionally share a lane and run one item at a
+     * time.
+     * <p/>
+     * Daemon work is not ordered, since it is long-lived and would block other work with the same key. When the queue limit is reached under
+     * {@link AdmissionPolicy#CALLER_RUNS}, the work is rejected rather than run by the calling thread, which would break the ordering.
+     *
+     * @param work        the Work to execute
+     * @param affinityKey the key that determines the ordering of the work
+     * @return the work item representing the asynchronous work
+     * @throws WorkException            if the work cannot be queued
+     * @throws IllegalArgumentException if the work or key is null or the work is a javax.ejb.EnterpriseBean
+     */
+    public WorkItem schedule(Work work, Object affinityKey) throws WorkException, IllegalArgumentException {
+        return schedule(work, null, affinityKey);
+    }
+
+    /**
+     * Dispatches Work asynchronously, ordered with respect to other Work scheduled with the same affinity key, and notifies the listener of its
+     * progress.
+     *
+     * @param work        the Work to execute
+     * @param listener    can be null or a WorkListener which is used to inform the application of the progress of the Work
+     * @param affinityKey the key that determines the ordering of the work
+     * @return the work item representing the asynchronous work
+     * @throws WorkException            if the work cannot be queued
+     * @throws IllegalArgumentException if the work or key is null or the work is a javax.ejb.EnterpriseBean
+     * @see #schedule(Work, Object)
+     */
+    public WorkItem schedule(Work work, WorkListener listener, Object affinityKey) throws WorkException, IllegalArgumentException {
+        checkWork(work);
+        if (affinityKey == null) {
+            throw new IllegalArgumentException("Affinity key cannot be null");
+        }
+        int hash = affinityKey.hashCode();
+        return schedule(new DefaultWorkItem(work, listener, this), lanes[(hash ^ (hash >>> 16)) & (lanes.length - 1)]);
+    }
+
+    /**
+     * Dispatches Work asynchronously that must be started by the given deadline. If the work is still queued when the deadline passes, it is
+     * discarded when it is dequeued: it is not run, its status becomes {@link WorkEvent#WORK_REJECTED}, the listener is notified that it was
+     * rejected and {@link WorkItem#getResult()} throws a WorkRejectedException. Work that has started by the deadline runs to completion.
+     * <p/>
+     * The deadline is converted to the monotonic clock when the work is scheduled, so the check at dequeue time does not depend on changes to
+     * the system clock.
+     *
+     * @param work     the Work to execute
+     * @param listener can be null or a WorkListener which is used to inform the application of the progress of the Work
+     * @param deadline the time by which the work must be started, in milliseconds since the epoch as returned by
+     *                 {@link System#currentTimeMillis()}
+     * @return the work item representing the asynchronous work
+     * @throws WorkException            if the work cannot be queued or the deadline has already passed
+     * @throws IllegalArgumentException if the work is null or is a javax.ejb.EnterpriseBean
+     */
+    public WorkItem scheduleBefore(Work work, WorkListener listener, long deadline) throws WorkException, IllegalArgumentException {
+        checkWork(work);
+        DefaultWorkItem item = new DefaultWorkItem(work, listener, this);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis());
+        // bound the remaining time so that comparing against the deadline cannot overflow
+        item.setDeadline(System.nanoTime() + Math.max(0, Math.min(remaining, MAX_DEADLINE)));
+        return schedule(item, null);
+    }
+
+    /**
+     * Dispatches child Work from Work running on one of this work manager's worker threads.
+     *
+     * @param work the Work to execute
+     * @return the work item representing the asynchronous work
+     * @throws WorkException            if the work manager is shut down or the work cannot be queued
+     * @throws IllegalArgumentException if the work is null or is a javax.ejb.EnterpriseBean
+     * @see #fork(Work, WorkListener)
+     */
+    public WorkItem fork(Work work) throws WorkException, IllegalArgumentException {
+        return fork(work, null);
+    }
+
+    /**
+     * Dispatches child Work from Work running on one of this work manager's worker threads. The child is queued on the current worker's local
+     * queue, so it is usually run by the same worker when the parent joins it, and it is not subject to the queue limit, so a parent holding a
+     * worker cannot block on or be rejected by a full queue. When called from any other thread, or for daemon work, this method is equivalent to
+     * {@link #schedule(Work, WorkListener)}.
+     * <p/>
+     * Forked work is waited on with {@link #join(WorkItem)} or {@link #joinAll(Collection)}, which run queued work while waiting instead of
+     * parking the worker, so divide-and-conquer work scales with the number of workers without additional threads.
+     *
+     * @param work     the Work to execute
+     * @param listener can be null or a WorkListener which is used to inform the application of the progress of the Work
+     * @return the work item representing the asynchronous work
+     * @throws WorkException            if the work manager is shut down or the work cannot be queued
+     * @throws IllegalArgumentException if the work is null or is a javax.ejb.EnterpriseBean
+     */
+    public WorkItem fork(Work work, WorkListener listener) throws WorkException, IllegalArgumentException {
+        checkWork(work);
+        DefaultWorkItem item = new DefaultWorkItem(work, listener, this);
+        if (work.isDaemon() || !scheduler.isWorkerThread()) {
+            return schedule(item, null);
+        }
+        if (shutdown) {
+            throw new WorkRejectedException("Work manager is shut down: " + name);
+        }
+        item.accept(true);
+        scheduler.execute(item);
+        return item;
+    }
+
+    /**
+     * Waits for a work item to complete. When called from one of this work manager's worker threads, the worker helps instead of parking: it runs
+     * the work item itself if it has not been started, and otherwise runs other queued work until the work item completes. Work that forks
+     * children and joins them therefore does not deadlock or starve the pool, however few workers there are. Work items that were scheduled
+     * with an affinity key or hold space under the queue limit are not run out of order, but the worker still helps with other work while
+     * waiting for them.
+     * <p/>
+     * When called from other threads, or for work items of other work managers, this method waits as {@link #waitForAll(Collection, long)} does.
+     *
+     * @param workItem the work item
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if the work item is null
+     */
+    public void join(WorkItem workItem) throws InterruptedException, IllegalArgumentException {
+        if (workItem == null) {
+            throw new IllegalArgumentException("Work item cannot be null");
+        }
+        if (WorkItems.isDone(workItem)) {
+            return;
+        }
+        if (!(workItem instanceof DefaultWorkItem) || ((DefaultWorkItem) workItem).getPinnedWorkManager() != this || !scheduler.isWorkerThread()) {
+            waitForAll(Collections.singletonList(workItem), INDEFINITE);
+            return;
+        }
+        DefaultWorkItem item = (DefaultWorkItem) workItem;
+        CompletionSignal signal = null;
+        long interval = WorkItems.MIN_POLL_INTERVAL;
+        try {
+            while (!item.isDone()) {
+                if (item.tryRun()) {
+                    continue;
+                }
+                DefaultWorkItem other = scheduler.pollLocal();
+                if (other != null) {
+                    help(other);
+                    interval = WorkItems.MIN_POLL_INTERVAL;
+                    continue;
+                }
+                // the work item is running on another thread and there is nothing to help with
+                if (signal == null) {
+                    signal = CompletionSignal.forAll(1);
+                    if (!item.addObserver(signal)) {
+                        return;
+                    }
+                }
+                if (signal.await(Long.MAX_VALUE, interval)) {
+                    return;
+                }
+                interval = Math.min(interval * 2, WorkItems.MAX_POLL_INTERVAL);
+            }
+        } finally {
+            if (signal != null) {
+                signal.close();
+            }
+        }
+    }
+
+    /**
+     * Waits for all work items to complete, helping to run queued work as {@link #join(WorkItem)} does.
+     *
+     * @param workItems the work items
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if the collection is null or contains an object that is not a WorkItem
+     */
+    public void joinAll(Collection workItems) throws InterruptedException, IllegalArgumentException {
+        WorkItems.checkWorkItems(workItems, INDEFINITE);
+        for (Object o : workItems) {
+            join((WorkItem) o);
+        }
+    }
+
+    private WorkItem schedule(DefaultWorkItem item, AffinityLane lane) throws WorkException {
+        if (shutdown) {
+            throw new WorkRejectedException("Work manager is shut down: " + name);
+        }
+        if (retention != null) {
+            retention.expire();
+        }
+        if (item.isExpired()) {
+            WorkRejectedException e = new WorkRejectedException("Work deadline has passed: " + item.getWork());
+            item.reject(e);
+            expired.increment();
+            throw e;
+        }
+        Work work = item.getWork();
+        if (work.isDaemon()) {
+            item.accept(true);
+            startDaemon(item);
+            return item;
+        }
+        if (pending != null && work instanceof IdempotentWork) {
+            Object key = ((IdempotentWork) work).getIdempotencyKey();
+            if (key != null) {
+                DefaultWorkItem existing = pending.putIfAbsent(key, item);
+                if (existing != null) {
+                    // entries are removed before the work they map to starts, so the existing work has not started
+                    coalesced.increment();
+                    if (item.getListener() != null) {
+                        existing.addListener(item.getListener());
+                    }
+                    return existing;
+                }
+                item.setIdempotencyKey(key);
+            }
+        }
+        if (admission != null) {
+            if (!admit(1)) {
+                if (admission.getPolicy() == AdmissionPolicy.CALLER_RUNS && lane == null) {
+                    admission.callerRuns(1);
+                    item.accept(true);
+                    item.run();
+                    return item;
+                }
+                throw reject(item);
+            }
+            item.setAdmitted();
+        }
+        item.accept(true);
+        if (lane != null) {
+            lane.execute(item);
+        } else {
+            scheduler.execute(item);
+        }
+        return item;
+    }
+
+    /**
+     * Dispatches a collection of Work asynchronously. The work is queued in a single operation and only as many worker threads are woken as are
+     * needed to execute it. Either all of the work is accepted or none of it is. If a queue limit is configured, the admission policy is applied to
+     * the non-daemon work in the batch as a whole.
+     * <p/>
+     * If the listener is a {@link BatchWorkListener}, it is notified once that the batch was accepted instead of once per work item. Work in a
+     * batch is not coalesced.
+     *
+     * @param work     the Work to execute
+     * @param listener can be null or a WorkListener which is used to inform the application of the progress of each Work
+     * @return the batch of work items, in the order the work was supplied
+     * @throws WorkException            if the work cannot be queued
+     * @throws IllegalArgumentException if the collection is null or contains null work or a javax.ejb.EnterpriseBean
+     */
+    public WorkBatch scheduleAll(Collection<? extends Work> work, WorkListener listener) throws WorkException, IllegalArgumentException {
+        if (work == null) {
+            throw new IllegalArgumentException("Work cannot be null");
+        }
+        for (Work each : work) {
+            checkWork(each);
+        }
+        if (shutdown) {
+            throw new WorkRejectedException("Work manager is shut down: " + name);
+        }
+        if (retention != null) {
+            retention.expire();
+        }
+        boolean batchListener = listener instanceof BatchWorkListener;
+        DefaultWorkItem[] items = new DefaultWorkItem[work.size()];
+        DefaultWorkItem[] pooled = new DefaultWorkItem[items.length];
+        int count = 0;
+        int i = 0;
+        for (Work each : work) {
+            DefaultWorkItem item = new DefaultWorkItem(each, listener, this);
+            items[i++] = item;
+            if (!each.isDaemon()) {
+                pooled[count++] = item;
+            }
+        }
+        boolean callerRuns = false;
+        if (admission != null && count > 0) {
+            if (admit(count)) {
+                for (int j = 0; j < count; j++) {
+                    pooled[j].setAdmitted();
+                }
+            } else if (admission.getPolicy() == AdmissionPolicy.CALLER_RUNS) {
+                admission.callerRuns(count);
+                callerRuns = true;
+            } else {
+                WorkRejectedException e = null;
+                for (DefaultWorkItem item : items) {
+                    e = reject(item);
+                }
+                throw e;
+            }
+        }
+        for (DefaultWorkItem item : items) {
+            item.accept(!batchListener);
+        }
+        WorkBatch batch = new WorkBatch(items);
+        for (DefaultWorkItem item : items) {
+            item.setBatch(batch);
+        }
+        if (batchListener) {
+            try {
+                ((BatchWorkListener) listener).batchAccepted(batch);
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+        for (DefaultWorkItem item : items) {
+            if (item.getWork().isDaemon()) {
+                startDaemon(item);
+            }
+        }
+        if (callerRuns) {
+            for (int j = 0; j < count; j++) {
+                pooled[j].run();
+            }
+        } else {
+            scheduler.executeAll(pooled, count);
+        }
+        return batch;
+    }
+
+    /**
+     * Waits for all work items to complete. A {@link WorkBatch} is waited on using its own completion count.
+     */
+    public boolean waitForAll(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        if (workItems instanceof WorkBatch) {
+            WorkItems.checkTimeout(timeout_ms);
+            WorkBatch batch = (WorkBatch) workItems;
+            return timeout_ms == IMMEDIATE ? batch.isDone() : batch.await(WorkItems.deadline(timeout_ms));
+        }
+        return WorkItems.waitForAll(workItems, timeout_ms);
+    }
+
+    public Collection waitForAny(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        return WorkItems.waitForAny(workItems, timeout_ms);
+    }
+
+    /**
+     * Shuts down the work manager. New work is rejected, queued work is allowed to complete and running daemon work is released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        if (limiter != null) {
+            limiter.stop();
+        }
+        scheduler.shutdown();
+        for (DefaultWorkItem item : daemons) {
+            item.release();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already unregistered
+            }
+        }
+    }
+
+    /**
+     * Returns true if the work manager has been shut down.
+     *
+     * @return true if the work manager has been shut down
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public WorkManagerStatistics getStatistics() {
+        return counters.snapshot();
+    }
+
+    public int getQueuedCount() {
+        int count = scheduler.getQueuedCount();
+        for (AffinityLane lane : lanes) {
+            count += lane.getWaitingCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of work items rejected because the queue limit was reached, including work that timed out waiting for admission.
+     *
+     * @return the number of rejected work items
+     */
+    public long getRejectedCount() {
+        return admission != null ? admission.getRejectedCount() : 0;
+    }
+
+    /**
+     * Returns the number of queued work items dropped to make room for newer work under {@link AdmissionPolicy#DROP_OLDEST}.
+     *
+     * @return the number of dropped work items
+     */
+    public long getDroppedCount() {
+        return admission != null ? admission.getDroppedCount() : 0;
+    }
+
+    /**
+     * Returns the number of work items executed by the scheduling thread under {@link AdmissionPolicy#CALLER_RUNS}.
+     *
+     * @return the number of work items executed by the scheduling thread
+     */
+    public long getCallerRunsCount() {
+        return admission != null ? admission.getCallerRunsCount() : 0;
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getReleasedResultCount() {
+        return retention != null ? retention.getReleasedCount() : 0;
+    }
+
+    /**
+     * Returns the number of work items cancelled, whether before they started or while they were running.
+     *
+     * @return the number of cancelled work items
+     */
+    public long getCancelledCount() {
+        return cancelled.sum();
+    }
+
+    /**
+     * Returns the number of work items rejected because their deadline passed before they could be started.
+     *
+     * @return the number of expired work items
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public LatencySnapshot getQueueWait() {
+        return metrics != null ? metrics.getQueueWait() : NO_LATENCIES;
+    }
+
+    public LatencySnapshot getRunTime() {
+        return metrics != null ? metrics.getRunTime() : NO_LATENCIES;
+    }
+
+    public Map<String, LatencySnapshot> getQueueWaitByWorkClass() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<String, LatencySnapshot>();
+        synchronized (metricsByClass) {
+            for (Map.Entry<Class<?>, LatencyMetrics> entry : metricsByClass.entrySet()) {
+                snapshots.put(entry.getKey().getName(), entry.getValue().getQueueWait());
+            }
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    public Map<String, LatencySnapshot> getRunTimeByWorkClass() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<String, LatencySnapshot>();
+        synchronized (metricsByClass) {
+            for (Map.Entry<Class<?>, LatencyMetrics> entry : metricsByClass.entrySet()) {
+                snapshots.put(entry.getKey().getName(), entry.getValue().getRunTime());
+            }
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    public int getConcurrencyLimit() {
+        if (limiter != null) {
+            return limiter.getLimit();
+        }
+        return scheduler instanceof VirtualThreadScheduler ? Integer.MAX_VALUE : parallelism;
+    }
+
+    public double getConcurrencyGradient() {
+        return limiter != null ? limiter.getGradient() : 1.0;
+    }
+
+    public long getConcurrencyQueueWait() {
+        return limiter != null ? limiter.getAverageQueueWait() : 0;
+    }
+
+    public long getConcurrencyLimitIncreases() {
+        return limiter != null ? limiter.getIncreases() : 0;
+    }
+
+    public long getConcurrencyLimitDecreases() {
+        return limiter != null ? limiter.getDecreases() : 0;
+    }
+
+    /**
+     * Returns true if the queue wait and run time of work items are measured, either to be recorded or to adjust the concurrency limit.
+     *
+     * @return true if latencies are measured
+     */
+    boolean isTiming() {
+        return timing;
+    }
+
+    /**
+     * Records the queue wait and run time of a work item and passes them to the concurrency controller, if any.
+     *
+     * @param work      the work
+     * @param queueWait the time from the work item being accepted to being started, in nanoseconds
+     * @param runTime   the time from the work item being started to being completed, in nanoseconds
+     */
+    void recordLatency(Work work, long queueWait, long runTime) {
+        if (limiter != null && !work.isDaemon()) {
+            // daemon work does not run on the worker threads
+            limiter.record(queueWait, runTime);
+        }
+        if (metrics == null) {
+            return;
+        }
+        // daemon, virtual and caller threads may be short-lived, so only the worker threads write to their own histogram segments
+        boolean workerThread = scheduler.isWorkerThread();
+        metrics.record(queueWait, runTime, workerThread);
+        if (classMetrics != null) {
+            classMetrics.get(work.getClass()).record(queueWait, runTime, workerThread);
+        }
+    }
+
+    /**
+     * Called when a work item has completed and its listener and observers have been notified.
+     *
+     * @param item the work item
+     */
+    void completed(DefaultWorkItem item) {
+        if (retention != null) {
+            retention.completed(item);
+        }
+    }
+
+    /**
+     * Called when a work item registered under an idempotency key is no longer waiting to start.
+     *
+     * @param key  the idempotency key
+     * @param item the work item
+     */
+    void removePending(Object key, DefaultWorkItem item) {
+        pending.remove(key, item);
+    }
+
+    /**
+     * Called when a work item is dequeued after its deadline has passed.
+     *
+     * @param item the work item
+     */
+    void expired(DefaultWorkItem item) {
+        if (item.reject(new WorkRejectedException("Work deadline has passed: " + item.getWork()))) {
+            expired.increment();
+        }
+    }
+
+    /**
+     * Called when a work item is cancelled.
+     */
+    void cancelled() {
+        cancelled.increment();
+    }
+
+    /**
+     * Called when an admitted work item leaves the queue, either to start or because it was removed.
+     */
+    void dequeued() {
+        admission.release();
+    }
+
+    StatisticsCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Returns true if WorkEvents are reused across listener callbacks.
+     *
+     * @return true if WorkEvents are reused across listener callbacks
+     */
+    boolean isReuseEvents() {
+        return reuseEvents;
+    }
+
+    /**
+     * Returns the sequence number of a newly scheduled work item. Under {@link ExecutionMode#PRIORITY}, items of equal rank are started in order
+     * of their sequence numbers, so the numbers are taken from a single counter to follow the order of scheduling across threads. Otherwise they
+     * only need to be unique and are taken from per-thread blocks.
+     *
+     * @return the sequence number
+     */
+    long nextSequence() {
+        return prioritized ? SequenceGenerator.nextOrdered() : SequenceGenerator.next();
+    }
+
+    /**
+     * Returns the rank used to order a work item under {@link ExecutionMode#PRIORITY}. The rank is the time the work was scheduled, brought
+     * forward by its priority multiplied by the aging interval, so a waiting item overtakes newer work of a higher priority once it has waited
+     * for the aging interval per level of difference.
+     *
+     * @param work the work
+     * @return the rank or zero if work is not ordered by priority
+     */
+    long rank(Work work) {
+        if (!prioritized) {
+            return 0;
+        }
+        long priority = work instanceof PrioritizedWork ? ((PrioritizedWork) work).getPriority() : 0;
+        if (priorityAging == 0) {
+            // strict priority: items of equal priority are ordered by sequence
+            return -priority;
+        }
+        long now = System.nanoTime();
+        long boost = priority * priorityAging;
+        if (boost / priorityAging != priority || Math.abs(boost) > MAX_PRIORITY_BOOST) {
+            boost = priority > 0 ? MAX_PRIORITY_BOOST : -MAX_PRIORITY_BOOST;
+        }
+        return now - boost;
+    }
+
+    /**
+     * Reserves queue space for the given number of work items, blocking or dropping queued work as required by the admission policy.
+     *
+     * @param count the number of work items
+     * @return true if the space was reserved
+     */
+    private boolean admit(int count) {
+        if (admission.tryAdmit(count)) {
+            return true;
+        }
+        switch (admission.getPolicy()) {
+        case BLOCK:
+            try {
+                return admission.awaitAdmit(count);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        case DROP_OLDEST:
+            if (count > admission.getLimit()) {
+                return false;
+            }
+            while (!admission.tryAdmit(count)) {
+                DefaultWorkItem oldest = scheduler.pollOldest();
+                if (oldest == null) {
+                    return false;
+                }
+                if (oldest.releaseQueueSpace()) {
+                    // forked and cancelled work does not hold queue space
+                    admission.release();
+                }
+                if (oldest.discard(new WorkRejectedException("Work dropped to admit newer work: " + name))) {
+                    admission.dropped();
+                }
+            }
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private WorkRejectedException reject(DefaultWorkItem item) {
+        WorkRejectedException e = new WorkRejectedException("Work manager queue limit reached: " + name);
+        item.reject(e);
+        admission.rejected(1);
+        return e;
+    }
+
+    private ObjectName register() {
+        try {
+            ObjectName registered = new ObjectName("org.fabric3.commonj:type=WorkManager,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+            return registered;
+        } catch (JMException e) {
+            scheduler.shutdown();
+            throw new IllegalStateException("Unable to register work manager MBean: " + name, e);
+        }
+    }
+
+    private WorkScheduler createScheduler(WorkManagerConfiguration configuration) {
+        switch (configuration.getExecutionMode()) {
+        case VIRTUAL_THREADS:
+            return new VirtualThreadScheduler(name);
+        case PRIORITY:
+            return new PriorityScheduler(name, configuration.getParallelism());
+        default:
+            NodeTopology topology = null;
+            if (configuration.isNodeAware()) {
+                String cpuSets = configuration.getCpuSets();
+                topology = cpuSets != null ? NodeTopology.parse(cpuSets) : NodeTopology.read();
+                if (topology != null && topology.getGroupCount() < 2) {
+                    // a single group behaves as ungrouped workers
+                    topology = null;
+                }
+            }
+            return new WorkStealingScheduler(name,
+                                             configuration.getParallelism(),
+                                             configuration.getQueueCapacity(),
+                                             topology,
+                                             configuration.isBindWorkers());
+        }
+    }
+
+    /**
+     * Runs a work item taken from the scheduler by a worker thread that is waiting for forked work.
+     *
+     * @param item the work item
+     */
+    private void help(DefaultWorkItem item) {
+        try {
+            item.run();
+        } catch (Throwable e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private void startDaemon(final DefaultWorkItem item) {
+        daemons.add(item);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    item.run();
+                } finally {
+                    daemons.remove(item);
+                }
+            }
+        }, name + "-daemon-" + daemonCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void checkWork(Work work) {
+        if (work == null) {
+            throw new IllegalArgumentException("Work cannot be null");
+        }
+        if (ENTERPRISE_BEAN.get(work.getClass())) {
+            throw new IllegalArgumentException("Work cannot be an enterprise bean: " + work.getClass().getName());
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+/**
+ * Determines how a {@link DefaultWorkManager} executes non-daemon work. Daemon work is always executed on dedicated platform threads.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Work is executed on a fixed set of platform worker threads using per-worker queues and work stealing. This mode suits CPU-bound work.
+     */
+    WORK_STEALING,
+
+    /**
+     * Work is executed on a fixed set of platform worker threads that take pending work from a shared queue in priority order, as defined by
+     * {@link DefaultWorkItem#compareTo(Object)}. Waiting work is aged so that low priority work is not starved. This mode suits workloads where
+     * latency-sensitive work is mixed with bulk work.
+     *
+     * @see PrioritizedWork
+     */
+    PRIORITY,
+
+    /**
+     * Each work item is executed on its own virtual thread. This mode suits work that spends most of its time blocked on I/O, as blocked virtual
+     * threads do not tie up platform threads. Requires a Java 21 or later runtime.
+     */
+    VIRTUAL_THREADS
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free stack of parked worker threads, identified by their index. The stack head packs a modification stamp in the upper 32 bits and the
+ * index of the top worker plus one in the lower 32 bits, which avoids ABA problems when workers are popped and pushed concurrently.
+ * <p/>
+ * Workers use the stack as follows: a worker that finds no work pushes itself, rescans for work so that work queued concurrently is not missed,
+ * and then parks until a scheduling thread pops and unparks it.
+ * <p/>
+ * The stack also enforces a concurrency limit: workers with an index at or above the limit are gated and must not take work. Gated workers are
+ * skipped when the stack is popped so that signals are only delivered to workers that can act on them.
+ */
+final class IdleStack {
+    private static final long STAMP_UNIT = 1L << 32;
+    private static final long INDEX_MASK = STAMP_UNIT - 1;
+
+    private final Thread[] threads;
+    private final AtomicIntegerArray next;
+    private final AtomicIntegerArray idle;
+    private final AtomicLong head = new AtomicLong();
+    private volatile int limit;
+
+    /**
+     * Constructor.
+     *
+     * @param size the number of workers
+     */
+    IdleStack(int size) {
+        threads = new Thread[size];
+        next = new AtomicIntegerArray(size);
+        idle = new AtomicIntegerArray(size);
+        limit = size;
+    }
+
+    /**
+     * Registers the thread for the worker with the given index.
+     *
+     * @param index  the worker index
+     * @param thread the worker thread
+     */
+    void register(int index, Thread thread) {
+        threads[index] = thread;
+    }
+
+    /**
+     * Returns true if the worker is on the stack.
+     *
+     * @param index the worker index
+     * @return true if the worker is on the stack
+     */
+    boolean isIdle(int index) {
+        return idle.get(index) != 0;
+    }
+
+    /**
+     * Returns the number of workers that may take work.
+     *
+     * @return the concurrency limit
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the number of workers that may take work. Workers that are admitted by an increase are woken.
+     *
+     * @param limit the concurrency limit, between one and the number of workers
+     */
+    void setLimit(int limit) {
+        int old = this.limit;
+        this.limit = limit;
+        for (int i = old; i < limit; i++) {
+            LockSupport.unpark(threads[i]);
+        }
+    }
+
+    /**
+     * Returns true if the worker is above the concurrency limit and must not take work.
+     *
+     * @param index the worker index
+     * @return true if the worker is gated
+     */
+    boolean isGated(int index) {
+        return index >= limit;
+    }
+
+    /**
+     * Pushes the worker on the stack.
+     *
+     * @param index the worker index
+     */
+    void push(int index) {
+        idle.set(index, 1);
+        for (; ; ) {
+            long current = head.get();
+            next.set(index, (int) (current & INDEX_MASK));
+            long update = ((current & ~INDEX_MASK) + STAMP_UNIT) | (index + 1);
+            if (head.compareAndSet(current, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wakes a parked worker, if there is one.
+     *
+     * @return true if a worker was woken
+     */
+    boolean signal() {
+        if ((head.get() & INDEX_MASK) == 0) {
+            return false;
+        }
+        Thread thread = pop();
+        if (thread == null) {
+            return false;
+        }
+        LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * Wakes up to the given number of parked workers.
+     *
+     * @param count the maximum number of workers to wake
+     */
+    void signal(int count) {
+        for (int i = 0; i < count && signal(); i++) {
+            // wake the next worker
+        }
+    }
+
+    /**
+     * Wakes all workers, whether parked or not.
+     */
+    void signalAll() {
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private Thread pop() {
+        for (; ; ) {
+            long current = head.get();
+            int top = (int) (current & INDEX_MASK);
+            if (top == 0) {
+                return null;
+            }
+            int index = top - 1;
+            long update = ((current & ~INDEX_MASK) + STAMP_UNIT) | next.get(index);
+            if (head.compareAndSet(current, update)) {
+                idle.set(index, 0);
+                if (index >= limit) {
+                    // the worker is gated and will push itself again once it is admitted and finds no work
+                    continue;
+                }
+                return threads[index];
+            }
+        }
+    }
+
+}
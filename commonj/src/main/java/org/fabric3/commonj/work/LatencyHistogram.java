@@ -0,0 +1,219 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with log-linear buckets: values are grouped by their power of two, and each power of two is divided
+ * into 16 linear sub-buckets, so recorded values are accurate to within about 6% across the whole range. Values above about 4.9 hours are
+ * counted in the last bucket.
+ * <p/>
+ * Long-lived threads, such as the worker threads of a scheduler, each write to their own segment of counters, which only they update, so
+ * recording is lock-free and free of contended atomic operations. Since segments are retained for the lifetime of the histogram, other threads
+ * are striped across a fixed number of shared segments that are updated atomically. Snapshots sum the segments.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 44;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final int SHARED_SEGMENTS = 16;
+
+    private final ThreadLocal<Segment> local;
+    private final Segment[] shared;
+    private final ConcurrentLinkedQueue<Segment> segments = new ConcurrentLinkedQueue<Segment>();
+
+    /**
+     * Constructor.
+     */
+    LatencyHistogram() {
+        local = new ThreadLocal<Segment>() {
+            protected Segment initialValue() {
+                Segment segment = new Segment(false);
+                segments.add(segment);
+                return segment;
+            }
+        };
+        shared = new Segment[SHARED_SEGMENTS];
+        for (int i = 0; i < SHARED_SEGMENTS; i++) {
+            shared[i] = new Segment(true);
+            segments.add(shared[i]);
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos     the latency in nanoseconds. Negative values are recorded as zero.
+     * @param longLived true if the current thread lives as long as the histogram and may write to its own segment
+     */
+    void record(long nanos, boolean longLived) {
+        Segment segment;
+        if (longLived) {
+            segment = local.get();
+        } else {
+            segment = shared[(int) Thread.currentThread().getId() & (SHARED_SEGMENTS - 1)];
+        }
+        segment.record(nanos < 0 ? 0 : nanos);
+    }
+
+    /**
+     * Returns a snapshot of the latencies recorded so far. Values recorded concurrently with the snapshot may or may not be included.
+     *
+     * @return the snapshot
+     */
+    LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (Segment segment : segments) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long value = segment.counts.get(i);
+                counts[i] += value;
+                count += value;
+            }
+            sum += segment.totals.get(Segment.SUM);
+            max = Math.max(max, segment.totals.get(Segment.MAX));
+        }
+        if (count == 0) {
+            return new LatencySnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        return new LatencySnapshot(count,
+                                   min(counts),
+                                   max,
+                                   (double) sum / count,
+                                   percentile(counts, count, 0.5, max),
+                                   percentile(counts, count, 0.9, max),
+                                   percentile(counts, count, 0.99, max),
+                                   percentile(counts, count, 0.999, max));
+    }
+
+    /**
+     * Returns the index of the bucket a value is counted in.
+     *
+     * @param value the value
+     * @return the bucket index
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the lowest value counted in a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the lowest value
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    private static long min(long[] counts) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                return lowestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    private static long percentile(long[] counts, long count, double percentile, long max) {
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // report the midpoint of the bucket, which is within half a bucket width of any value in it
+                long low = lowestValue(i);
+                long high = i + 1 < BUCKETS ? lowestValue(i + 1) - 1 : max;
+                return Math.min(max, low + (high - low) / 2);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * A set of bucket counters.
+     */
+    private static final class Segment {
+        private static final int SUM = 0;
+        private static final int MAX = 1;
+
+        private final boolean shared;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray totals = new AtomicLongArray(2);
+
+        private Segment(boolean shared) {
+            this.shared = shared;
+        }
+
+        private void record(long value) {
+            int bucket = bucket(value);
+            if (shared) {
+                counts.incrementAndGet(bucket);
+                totals.addAndGet(SUM, value);
+                for (long max = totals.get(MAX); value > max && !totals.compareAndSet(MAX, max, value); ) {
+                    max = totals.get(MAX);
+                }
+            } else {
+                // single writer: ordered stores are sufficient for readers to observe the updates
+                counts.lazySet(bucket, counts.get(bucket) + 1);
+                totals.lazySet(SUM, totals.get(SUM) + value);
+                if (value > totals.get(MAX)) {
+                    totals.lazySet(MAX, value);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A point-in-time summary of recorded latencies. All values are in nanoseconds; the minimum and percentiles are accurate to within about 6%,
+ * while the maximum and mean are exact.
+ */
+public final class LatencySnapshot {
+    private final long count;
+    private final long min;
+    private final long max;
+    private final double mean;
+    private final long percentile50;
+    private final long percentile90;
+    private final long percentile99;
+    private final long percentile999;
+
+    @ConstructorProperties({"count", "min", "max", "mean", "percentile50", "percentile90", "percentile99", "percentile999"})
+    public LatencySnapshot(long count,
+                           long min,
+                           long max,
+                           double mean,
+                           long percentile50,
+                           long percentile90,
+                           long percentile99,
+                           long percentile999) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.percentile50 = percentile50;
+        this.percentile90 = percentile90;
+        this.percentile99 = percentile99;
+        this.percentile999 = percentile999;
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getPercentile50() {
+        return percentile50;
+    }
+
+    public long getPercentile90() {
+        return percentile90;
+    }
+
+    public long getPercentile99() {
+        return percentile99;
+    }
+
+    public long getPercentile999() {
+        return percentile999;
+    }
+
+    public String toString() {
+        return "LatencySnapshot[count=" + count + ", min=" + min + ", max=" + max + ", mean=" + mean + ", p50=" + percentile50 + ", p90="
+                + percentile90 + ", p99=" + percentile99 + ", p99.9=" + percentile999 + "]";
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The groups of CPUs that workers are divided into, one per NUMA node as reported by Linux sysfs or one per configured CPU set. Binds threads to
+ * the CPUs of a group with <code>taskset</code> and determines the group of the CPU the current thread is running on, both using
+ * <code>/proc/thread-self/stat</code>.
+ */
+final class NodeTopology {
+    private static final String NODE_DIRECTORY = "/sys/devices/system/node";
+    private static final String THREAD_STAT = "/proc/thread-self/stat";
+    // the processor field of the stat file, counted from the state field that follows the command name
+    private static final int PROCESSOR_FIELD = 36;
+
+    private final int[][] cpuSets;
+    private final int[] groups;
+
+    private NodeTopology(int[][] cpuSets) {
+        this.cpuSets = cpuSets;
+        int max = -1;
+        for (int[] cpus : cpuSets) {
+            for (int cpu : cpus) {
+                max = Math.max(max, cpu);
+            }
+        }
+        groups = new int[max + 1];
+        Arrays.fill(groups, -1);
+        for (int i = 0; i < cpuSets.length; i++) {
+            for (int cpu : cpuSets[i]) {
+                if (groups[cpu] == -1) {
+                    groups[cpu] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the NUMA nodes of the host from sysfs. Nodes without CPUs are ignored.
+     *
+     * @return the topology, or null if the host does not report NUMA nodes
+     */
+    static NodeTopology read() {
+        File[] files = new File(NODE_DIRECTORY).listFiles();
+        if (files == null) {
+            return null;
+        }
+        TreeMap<Integer, int[]> nodes = new TreeMap<Integer, int[]>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.matches("node\\d+")) {
+                continue;
+            }
+            try {
+                String list = new String(Files.readAllBytes(new File(file, "cpulist").toPath()), StandardCharsets.US_ASCII).trim();
+                int[] cpus = parseCpuList(list);
+                if (cpus.length > 0) {
+                    nodes.put(Integer.valueOf(name.substring(4)), cpus);
+                }
+            } catch (IOException e) {
+                // node removed or not readable
+            } catch (IllegalArgumentException e) {
+                // unexpected format
+            }
+        }
+        return nodes.isEmpty() ? null : new NodeTopology(nodes.values().toArray(new int[nodes.size()][]));
+    }
+
+    /**
+     * Parses CPU sets separated by semicolons, each in the sysfs CPU list format, for example <code>0-7,16-23;8-15,24-31</code>.
+     *
+     * @param cpuSets the CPU sets
+     * @return the topology
+     * @throws IllegalArgumentException if the CPU sets are malformed
+     */
+    static NodeTopology parse(String cpuSets) {
+        List<int[]> sets = new ArrayList<int[]>();
+        for (String set : cpuSets.split(";")) {
+            int[] cpus = parseCpuList(set.trim());
+            if (cpus.length == 0) {
+                throw new IllegalArgumentException("CPU set cannot be empty: " + cpuSets);
+            }
+            sets.add(cpus);
+        }
+        return new NodeTopology(sets.toArray(new int[sets.size()][]));
+    }
+
+    /**
+     * Parses a list of CPUs in the sysfs format: comma-separated CPU numbers and inclusive ranges, for example <code>0-3,8,10-11</code>.
+     *
+     * @param list the list
+     * @return the CPUs in ascending order
+     * @throws IllegalArgumentException if the list is malformed
+     */
+    static int[] parseCpuList(String list) {
+        BitSet cpus = new BitSet();
+        if (list.length() == 0) {
+            return new int[0];
+        }
+        for (String range : list.split(",")) {
+            range = range.trim();
+            int dash = range.indexOf('-');
+            try {
+                int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash).trim());
+                int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+                if (first < 0 || last < first) {
+                    throw new IllegalArgumentException("Invalid CPU range: " + range);
+                }
+                cpus.set(first, last + 1);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CPU list: " + list, e);
+            }
+        }
+        return cpus.stream().toArray();
+    }
+
+    /**
+     * Returns the number of groups.
+     *
+     * @return the number of groups
+     */
+    int getGroupCount() {
+        return cpuSets.length;
+    }
+
+    /**
+     * Returns the number of CPUs in a group.
+     *
+     * @param group the group
+     * @return the number of CPUs
+     */
+    int getCpuCount(int group) {
+        return cpuSets[group].length;
+    }
+
+    /**
+     * Returns the group containing the CPU the current thread last ran on. Threads may migrate between CPUs, so the result is a hint.
+     *
+     * @return the group or -1 if it cannot be determined
+     */
+    int currentGroup() {
+        int cpu = currentCpu();
+        return cpu >= 0 && cpu < groups.length ? groups[cpu] : -1;
+    }
+
+    /**
+     * Binds the current thread to the CPUs of a group by running <code>taskset</code> on its thread ID.
+     *
+     * @param group the group
+     * @return true if the thread was bound, false if it could not be, for example because the host is not Linux, <code>taskset</code> is not
+     *         installed or the CPUs are outside the CPU set of the process
+     */
+    boolean bind(int group) {
+        try {
+            String stat = new String(Files.readAllBytes(Paths.get(THREAD_STAT)), StandardCharsets.US_ASCII);
+            String tid = stat.substring(0, stat.indexOf(' '));
+            ProcessBuilder builder = new ProcessBuilder("taskset", "-p", "-c", toCpuList(cpuSets[group]), tid);
+            builder.redirectErrorStream(true);
+            Process process = builder.start();
+            InputStream output = process.getInputStream();
+            try {
+                // drain the output so the process cannot block on a full pipe
+                byte[] buffer = new byte[256];
+                while (output.read(buffer) != -1) {
+                }
+            } finally {
+                output.close();
+            }
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (RuntimeException e) {
+            // not Linux or an unexpected format
+            return false;
+        }
+    }
+
+    private static String toCpuList(int[] cpus) {
+        StringBuilder builder = new StringBuilder();
+        for (int cpu : cpus) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(cpu);
+        }
+        return builder.toString();
+    }
+
+    private static int currentCpu() {
+        try {
+            String stat = new String(Files.readAllBytes(Paths.get(THREAD_STAT)), StandardCharsets.US_ASCII);
+            // the command name is enclosed in parentheses and may contain spaces
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return fields.length > PROCESSOR_FIELD ? Integer.parseInt(fields[PROCESSOR_FIELD]) : -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            // not Linux or an unexpected format
+            return -1;
+        }
+    }
+
+}
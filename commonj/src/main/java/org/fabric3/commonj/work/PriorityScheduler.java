@@ -0,0 +1,172 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatches work items to a fixed set of worker threads in the order defined by {@link DefaultWorkItem#compareTo(Object)}. Pending work is held
+ * in a lock-free skip list, so enqueueing and dequeueing work takes logarithmic time and does not block under contention. Parked workers are kept
+ * on an {@link IdleStack} so scheduling work wakes at most one of them.
+ */
+final class PriorityScheduler implements WorkScheduler {
+    private final Worker[] workers;
+    private final ConcurrentSkipListSet<DefaultWorkItem> queue = new ConcurrentSkipListSet<DefaultWorkItem>();
+    private final IdleStack idle;
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor.
+     *
+     * @param name        the name used as a prefix for worker threads
+     * @param parallelism the number of worker threads
+     */
+    PriorityScheduler(String name, int parallelism) {
+        workers = new Worker[parallelism];
+        idle = new IdleStack(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(name + "-worker-" + i, i);
+            idle.register(i, workers[i]);
+        }
+    }
+
+    public void start() {
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    public void execute(DefaultWorkItem item) {
+        queue.add(item);
+        idle.signal();
+    }
+
+    public void executeAll(DefaultWorkItem[] items, int count) {
+        for (int i = 0; i < count; i++) {
+            queue.add(items[i]);
+        }
+        idle.signal(count);
+    }
+
+    public boolean isWorkerThread() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ((Worker) thread).scheduler() == this;
+    }
+
+    /**
+     * Returns the most urgent work item, since work is not queued per worker.
+     */
+    public DefaultWorkItem pollLocal() {
+        return isWorkerThread() ? queue.pollFirst() : null;
+    }
+
+    /**
+     * Returns the least urgent work item, which is the one that would otherwise be started last.
+     */
+    public DefaultWorkItem pollOldest() {
+        return queue.pollLast();
+    }
+
+    public void setConcurrencyLimit(int limit) {
+        idle.setLimit(Math.max(1, Math.min(limit, workers.length)));
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        idle.signalAll();
+    }
+
+    public int getQueuedCount() {
+        // ConcurrentSkipListSet.size() traverses the set
+        return queue.size();
+    }
+
+    /**
+     * A worker thread.
+     */
+    private final class Worker extends Thread {
+        private final int index;
+
+        private Worker(String name, int index) {
+            super(name);
+            this.index = index;
+            setDaemon(true);
+        }
+
+        public void run() {
+            for (; ; ) {
+                if (idle.isGated(index)) {
+                    if (shutdown) {
+                        return;
+                    }
+                    LockSupport.park(this);
+                    continue;
+                }
+                DefaultWorkItem item = queue.pollFirst();
+                if (item != null) {
+                    if (!queue.isEmpty()) {
+                        // more work is available; wake another worker to help execute it
+                        idle.signal();
+                    }
+                    runItem(item);
+                } else if (shutdown) {
+                    return;
+                } else if (!idle.isIdle(index)) {
+                    // publish the worker as idle and rescan before parking so that work queued concurrently is not missed
+                    idle.push(index);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private PriorityScheduler scheduler() {
+            return PriorityScheduler.this;
+        }
+
+        private void runItem(DefaultWorkItem item) {
+            try {
+                item.run();
+            } catch (Throwable e) {
+                getUncaughtExceptionHandler().uncaughtException(this, e);
+            }
+        }
+    }
+
+}
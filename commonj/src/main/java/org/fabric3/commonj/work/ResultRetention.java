@@ -0,0 +1,132 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how long the results of completed work are retained. Completed work items are queued in completion order; once more than the maximum
+ * number are retained or the oldest has been retained for longer than the maximum time, its result is released. Releasing a result calls
+ * {@link commonj.work.Work#release()} and clears the reference from the work item to the Work, so the Work can be reclaimed even if the work item
+ * remains reachable.
+ * <p/>
+ * Results that exceed the maximum time are released when work is next scheduled or completed.
+ */
+final class ResultRetention {
+    private final int maxCount;
+    private final long maxAge;
+    private final boolean timed;
+    private final ConcurrentLinkedQueue<DefaultWorkItem> retained = new ConcurrentLinkedQueue<DefaultWorkItem>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final LongAdder released = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxCount the maximum number of results retained
+     * @param maxAge   the maximum time in milliseconds a result is retained or Long.MAX_VALUE if results are not released after a time
+     */
+    ResultRetention(int maxCount, long maxAge) {
+        this.maxCount = maxCount;
+        this.timed = maxAge != Long.MAX_VALUE;
+        this.maxAge = timed ? TimeUnit.MILLISECONDS.toNanos(maxAge) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Called when a work item completes. The result is released immediately if results are not retained.
+     *
+     * @param item the work item
+     */
+    void completed(DefaultWorkItem item) {
+        if (maxCount == 0 || maxAge == 0) {
+            release(item);
+            return;
+        }
+        if (timed) {
+            item.setCompletedAt(System.nanoTime());
+        }
+        retained.offer(item);
+        if (count.incrementAndGet() > maxCount) {
+            while (count.get() > maxCount) {
+                DefaultWorkItem oldest = retained.poll();
+                if (oldest == null) {
+                    break;
+                }
+                count.decrementAndGet();
+                release(oldest);
+            }
+        }
+        expire();
+    }
+
+    /**
+     * Releases results that have been retained for longer than the maximum time.
+     */
+    void expire() {
+        if (!timed) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (DefaultWorkItem oldest = retained.peek(); oldest != null && now - oldest.getCompletedAt() >= maxAge; oldest = retained.peek()) {
+            // the head is removed by identity so that a concurrently added item is never released early
+            if (retained.remove(oldest)) {
+                count.decrementAndGet();
+                release(oldest);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of results released.
+     *
+     * @return the number of results released
+     */
+    long getReleasedCount() {
+        return released.sum();
+    }
+
+    private void release(DefaultWorkItem item) {
+        if (item.releaseResult()) {
+            released.increment();
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+
+/**
+ * A WorkEvent that is reused for successive listener callbacks on the same thread, so dispatching an event does not allocate. An instance is only
+ * valid for the duration of the callback it is passed to.
+ * <p/>
+ * A listener callback may schedule work, which dispatches an event on the same thread while the outer event is still in use. In that case
+ * {@link #acquire} returns null and the caller falls back to allocating an event.
+ */
+final class ReusableWorkEvent implements WorkEvent {
+    private static final ThreadLocal<ReusableWorkEvent> EVENTS = new ThreadLocal<ReusableWorkEvent>() {
+        protected ReusableWorkEvent initialValue() {
+            return new ReusableWorkEvent();
+        }
+    };
+
+    private int type;
+    private WorkItem workItem;
+    private WorkException exception;
+    private boolean inUse;
+
+    private ReusableWorkEvent() {
+    }
+
+    /**
+     * Returns the event for the current thread initialized with the given values, or null if the event is already in use on the thread.
+     *
+     * @param type      the event type
+     * @param workItem  the work item
+     * @param exception the exception or null
+     * @return the event or null
+     */
+    static ReusableWorkEvent acquire(int type, WorkItem workItem, WorkException exception) {
+        ReusableWorkEvent event = EVENTS.get();
+        if (event.inUse) {
+            return null;
+        }
+        event.inUse = true;
+        event.type = type;
+        event.workItem = workItem;
+        event.exception = exception;
+        return event;
+    }
+
+    /**
+     * Releases the event once the callback has returned so it can be reused.
+     */
+    void release() {
+        workItem = null;
+        exception = null;
+        inUse = false;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public WorkItem getWorkItem() {
+        return workItem;
+    }
+
+    public WorkException getException() {
+        return exception;
+    }
+
+    public String toString() {
+        return "WorkEvent[type=" + type + ", workItem=" + workItem + "]";
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique sequence numbers used to order work items. By default, threads reserve blocks of numbers from a shared counter and hand them
+ * out locally so that concurrent schedulers do not contend on a single counter for every item; numbers then increase per thread but not across
+ * threads. Where the order of scheduling across threads matters, numbers are taken from the shared counter one at a time.
+ */
+final class SequenceGenerator {
+    private static final int BLOCK_SIZE = 1024;
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private static final ThreadLocal<long[]> BLOCK = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private SequenceGenerator() {
+    }
+
+    /**
+     * Returns the next sequence number of the current thread. Numbers returned to different threads are not ordered by the time of the call.
+     *
+     * @return the next sequence number
+     */
+    static long next() {
+        long[] block = BLOCK.get();
+        if (block[0] == block[1]) {
+            block[0] = COUNTER.getAndAdd(BLOCK_SIZE);
+            block[1] = block[0] + BLOCK_SIZE;
+        }
+        return block[0]++;
+    }
+
+    /**
+     * Returns a sequence number greater than all numbers previously returned by this method on any thread.
+     *
+     * @return the next sequence number
+     */
+    static long nextOrdered() {
+        return COUNTER.getAndIncrement();
+    }
+
+}
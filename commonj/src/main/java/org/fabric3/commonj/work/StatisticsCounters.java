@@ -0,0 +1,98 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts work items as they move through their lifecycle. Counters are striped so that updates from many threads do not contend, and reading
+ * them takes no locks.
+ * <p/>
+ * Snapshots are computed from the counters rather than read atomically. Counters for later lifecycle stages are read before those for earlier
+ * stages, so the derived queued and running counts are never negative and are accurate to within the work that changed state while the snapshot
+ * was taken.
+ */
+final class StatisticsCounters {
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    // rejected after being accepted, for example because the work was dropped or its deadline passed
+    private final LongAdder discarded = new LongAdder();
+
+    void accepted() {
+        accepted.increment();
+    }
+
+    void started() {
+        started.increment();
+    }
+
+    void completed(boolean failure) {
+        if (failure) {
+            failed.increment();
+        }
+        completed.increment();
+    }
+
+    /**
+     * Counts a rejected work item.
+     *
+     * @param wasAccepted true if the work item had been accepted
+     */
+    void rejected(boolean wasAccepted) {
+        if (wasAccepted) {
+            discarded.increment();
+        }
+        rejected.increment();
+    }
+
+    WorkManagerStatistics snapshot() {
+        long completed = this.completed.sum();
+        long failed = this.failed.sum();
+        long rejected = this.rejected.sum();
+        long discarded = this.discarded.sum();
+        long started = this.started.sum();
+        long accepted = this.accepted.sum();
+        long running = Math.max(0, started - completed);
+        long queued = Math.max(0, accepted - started - discarded);
+        return new WorkManagerStatistics(System.currentTimeMillis(), accepted, queued, running, completed, failed, rejected);
+    }
+
+}
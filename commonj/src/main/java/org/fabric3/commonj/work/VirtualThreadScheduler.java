@@ -0,0 +1,121 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executes each work item on its own virtual thread.
+ * <p/>
+ * Virtual threads are obtained reflectively through <code>Thread.ofVirtual()</code> so the module can be compiled for and used on runtimes that
+ * predate them; creating the scheduler on such a runtime fails with an IllegalStateException.
+ */
+final class VirtualThreadScheduler implements WorkScheduler {
+    private final ThreadFactory factory;
+
+    /**
+     * Constructor.
+     *
+     * @param name the name given to virtual threads
+     * @throws IllegalStateException if the runtime does not support virtual threads
+     */
+    VirtualThreadScheduler(String name) {
+        factory = createFactory(name + "-virtual");
+    }
+
+    public void start() {
+        // threads are created on demand
+    }
+
+    public void execute(DefaultWorkItem item) {
+        factory.newThread(item).start();
+    }
+
+    public void executeAll(DefaultWorkItem[] items, int count) {
+        for (int i = 0; i < count; i++) {
+            factory.newThread(items[i]).start();
+        }
+    }
+
+    public boolean isWorkerThread() {
+        // virtual threads can block without holding a platform thread, so they wait rather than help
+        return false;
+    }
+
+    public DefaultWorkItem pollLocal() {
+        return null;
+    }
+
+    public DefaultWorkItem pollOldest() {
+        // work is never queued
+        return null;
+    }
+
+    public void setConcurrencyLimit(int limit) {
+        // each work item runs on its own thread
+    }
+
+    public void shutdown() {
+        // work runs on its own thread and completes independently
+    }
+
+    public int getQueuedCount() {
+        return 0;
+    }
+
+    private static ThreadFactory createFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method nameMethod = builderType.getMethod("name", String.class);
+            builder = nameMethod.invoke(builder, name);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require a Java 21 or later runtime", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Virtual threads require a Java 21 or later runtime", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create virtual thread factory", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create virtual thread factory", e.getCause());
+        }
+    }
+
+}
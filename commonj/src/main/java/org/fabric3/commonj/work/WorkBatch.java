@@ -0,0 +1,126 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import commonj.work.WorkItem;
+
+/**
+ * The work items created by a single call to {@link DefaultWorkManager#scheduleAll}, in the order the work was supplied. A batch is an unmodifiable
+ * collection of work items and can be passed directly to {@link DefaultWorkManager#waitForAll} and {@link DefaultWorkManager#waitForAny}.
+ * <p/>
+ * A batch counts down its work items as they complete, so waiting for all of them does not require registering with each work item.
+ */
+public class WorkBatch extends AbstractList<WorkItem> implements RandomAccess {
+    private final DefaultWorkItem[] items;
+    private final AtomicInteger remaining;
+
+    WorkBatch(DefaultWorkItem[] items) {
+        this.items = items;
+        this.remaining = new AtomicInteger(items.length);
+    }
+
+    /**
+     * Returns true if all work in the batch has completed or was rejected.
+     *
+     * @return true if all work in the batch has completed or was rejected
+     */
+    public boolean isDone() {
+        return remaining.get() == 0;
+    }
+
+    /**
+     * Returns the number of work items in the batch that have not completed or been rejected.
+     *
+     * @return the number of work items that have not completed or been rejected
+     */
+    public int getRemaining() {
+        return remaining.get();
+    }
+
+    public WorkItem get(int index) {
+        return items[index];
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    DefaultWorkItem[] getItems() {
+        return items;
+    }
+
+    /**
+     * Called by a work item in the batch when it completes or is rejected.
+     */
+    void itemCompleted() {
+        if (remaining.decrementAndGet() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until all work in the batch is done or the deadline passes.
+     *
+     * @param deadline the deadline in nanoseconds
+     * @return true if all work in the batch is done
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    boolean await(long deadline) throws InterruptedException {
+        if (isDone()) {
+            return true;
+        }
+        synchronized (this) {
+            while (!isDone()) {
+                long timeout = deadline - System.nanoTime();
+                if (timeout <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, timeout);
+            }
+            return true;
+        }
+    }
+
+}
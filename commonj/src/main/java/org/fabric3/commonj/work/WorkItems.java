@@ -0,0 +1,238 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import commonj.work.WorkEvent;
+import commonj.work.WorkItem;
+import commonj.work.WorkManager;
+
+/**
+ * Implements {@link WorkManager#waitForAll(Collection, long)} and {@link WorkManager#waitForAny(Collection, long)} for the WorkManagers of this
+ * module. A single completion signal is registered with each {@link ObservableWorkItem} being waited on, so each completion costs a constant
+ * amount of work regardless of how many items are waited on and the waiting thread is woken once rather than on every completion. Work items
+ * from other WorkManager implementations are polled with an increasing interval.
+ */
+public final class WorkItems {
+    static final long MIN_POLL_INTERVAL = TimeUnit.MICROSECONDS.toNanos(100);
+    static final long MAX_POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private WorkItems() {
+    }
+
+    /**
+     * Waits for all work items to complete.
+     *
+     * @param workItems  the work items
+     * @param timeout_ms the time to wait in milliseconds, {@link WorkManager#IMMEDIATE} or {@link WorkManager#INDEFINITE}
+     * @return true if all work items completed
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if the collection is null or contains an object that is not a WorkItem, or the timeout is negative
+     */
+    public static boolean waitForAll(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        checkWorkItems(workItems, timeout_ms);
+        if (timeout_ms == WorkManager.IMMEDIATE) {
+            for (Object o : workItems) {
+                if (!isDone((WorkItem) o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        long deadline = deadline(timeout_ms);
+        CompletionSignal signal = CompletionSignal.forAll(workItems.size());
+        List<WorkItem> foreign = null;
+        int unregistered = 0;
+        for (Object o : workItems) {
+            WorkItem workItem = (WorkItem) o;
+            if (workItem instanceof ObservableWorkItem && ((ObservableWorkItem) workItem).addObserver(signal)) {
+                continue;
+            }
+            if (!(workItem instanceof ObservableWorkItem) && !isDone(workItem)) {
+                if (foreign == null) {
+                    foreign = new ArrayList<WorkItem>();
+                }
+                foreign.add(workItem);
+                continue;
+            }
+            unregistered++;
+        }
+        signal.unregistered(unregistered);
+        try {
+            if (foreign == null) {
+                return signal.await(deadline, Long.MAX_VALUE);
+            }
+            long interval = MIN_POLL_INTERVAL;
+            for (; ; ) {
+                for (Iterator<WorkItem> i = foreign.iterator(); i.hasNext(); ) {
+                    if (isDone(i.next())) {
+                        i.remove();
+                        signal.countDown();
+                    }
+                }
+                if (signal.await(deadline, interval)) {
+                    return true;
+                } else if (deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+                interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+            }
+        } finally {
+            signal.close();
+        }
+    }
+
+    /**
+     * Waits for any work item to complete. Work items that complete while waiting are collected by the completion signal, so they are returned
+     * without rescanning the collection.
+     *
+     * @param workItems  the work items
+     * @param timeout_ms the time to wait in milliseconds, {@link WorkManager#IMMEDIATE} or {@link WorkManager#INDEFINITE}
+     * @return the work items that have completed, which is empty if none completed before the timeout
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if the collection is null or contains an object that is not a WorkItem, or the timeout is negative
+     */
+    public static Collection waitForAny(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        checkWorkItems(workItems, timeout_ms);
+        List<WorkItem> completed = new ArrayList<WorkItem>();
+        if (timeout_ms == WorkManager.IMMEDIATE || workItems.isEmpty()) {
+            for (Object o : workItems) {
+                WorkItem workItem = (WorkItem) o;
+                if (isDone(workItem)) {
+                    completed.add(workItem);
+                }
+            }
+            return completed;
+        }
+        long deadline = deadline(timeout_ms);
+        CompletionSignal signal = CompletionSignal.forAny();
+        List<WorkItem> foreign = null;
+        try {
+            for (Object o : workItems) {
+                WorkItem workItem = (WorkItem) o;
+                if (workItem instanceof ObservableWorkItem) {
+                    if (!((ObservableWorkItem) workItem).addObserver(signal)) {
+                        completed.add(workItem);
+                    }
+                } else if (isDone(workItem)) {
+                    completed.add(workItem);
+                } else {
+                    if (foreign == null) {
+                        foreign = new ArrayList<WorkItem>();
+                    }
+                    foreign.add(workItem);
+                }
+            }
+            if (!completed.isEmpty()) {
+                return completed;
+            }
+            long interval = foreign == null ? Long.MAX_VALUE : MIN_POLL_INTERVAL;
+            for (; ; ) {
+                if (signal.await(deadline, interval)) {
+                    break;
+                }
+                if (foreign != null) {
+                    for (WorkItem workItem : foreign) {
+                        if (isDone(workItem)) {
+                            completed.add(workItem);
+                        }
+                    }
+                    if (!completed.isEmpty()) {
+                        break;
+                    }
+                    interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+                }
+                if (deadline - System.nanoTime() <= 0) {
+                    break;
+                }
+            }
+        } finally {
+            signal.close();
+        }
+        signal.drainTo(completed);
+        return completed;
+    }
+
+    /**
+     * Returns true if the work item has completed or was rejected.
+     *
+     * @param workItem the work item
+     * @return true if the work item has completed or was rejected
+     */
+    public static boolean isDone(WorkItem workItem) {
+        int status = workItem.getStatus();
+        return status == WorkEvent.WORK_COMPLETED || status == WorkEvent.WORK_REJECTED;
+    }
+
+    static void checkWorkItems(Collection workItems, long timeout) {
+        if (workItems == null) {
+            throw new IllegalArgumentException("Work items cannot be null");
+        }
+        checkTimeout(timeout);
+        for (Object o : workItems) {
+            if (!(o instanceof WorkItem)) {
+                throw new IllegalArgumentException("Not a work item: " + o);
+            }
+        }
+    }
+
+    static void checkTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative: " + timeout);
+        }
+    }
+
+    /**
+     * Returns the deadline in terms of {@link System#nanoTime()} for a timeout in milliseconds.
+     *
+     * @param timeout the timeout in milliseconds
+     * @return the deadline
+     */
+    static long deadline(long timeout) {
+        long now = System.nanoTime();
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        // guard against overflow for INDEFINITE
+        return now + nanos < now ? Long.MAX_VALUE : now + nanos;
+    }
+
+}
@@ -0,0 +1,428 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+/**
+ * Configuration for a {@link DefaultWorkManager}.
+ */
+public class WorkManagerConfiguration {
+    private String name = "WorkManager";
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1024;
+    private ExecutionMode executionMode = ExecutionMode.WORK_STEALING;
+    private boolean reuseEvents;
+    private int queueLimit;
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.REJECT;
+    private long admissionTimeout = 1000;
+    private long priorityAging = 100;
+    private int affinityStripes = 256;
+    private boolean latencyMetrics = true;
+    private boolean workClassMetrics;
+    private boolean managementEnabled;
+    private boolean adaptiveConcurrency;
+    private int minParallelism = 1;
+    private long adaptiveInterval = 100;
+    private boolean coalescing;
+    private long resultRetentionTime = Long.MAX_VALUE;
+    private int resultRetentionCount = Integer.MAX_VALUE;
+    private boolean nodeAware;
+    private String cpuSets;
+    private boolean bindWorkers;
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the work manager, which is also used as a prefix for thread names.
+     *
+     * @param name the name
+     */
+    public void setName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        this.name = name;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of worker threads used to execute non-daemon work. Defaults to the number of available processors. When adaptive
+     * concurrency is enabled, this is the upper bound of the concurrency limit.
+     *
+     * @param parallelism the number of worker threads
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be greater than zero: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the capacity of each worker queue. Work that does not fit in a worker queue is placed in a shared overflow queue.
+     *
+     * @param queueCapacity the capacity of each worker queue
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be greater than zero: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets how non-daemon work is executed. Defaults to {@link ExecutionMode#WORK_STEALING}.
+     *
+     * @param executionMode the execution mode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) {
+            throw new IllegalArgumentException("Execution mode cannot be null");
+        }
+        this.executionMode = executionMode;
+    }
+
+    public boolean isReuseEvents() {
+        return reuseEvents;
+    }
+
+    /**
+     * Sets whether WorkEvents passed to WorkListeners are reused. When enabled, each thread reuses a single event object for its listener
+     * callbacks, so dispatching events does not allocate. A reused event is only valid for the duration of the callback it is passed to;
+     * listeners must not retain it or access it from other threads. Defaults to false.
+     *
+     * @param reuseEvents true if events should be reused
+     */
+    public void setReuseEvents(boolean reuseEvents) {
+        this.reuseEvents = reuseEvents;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * Sets the maximum number of non-daemon work items that may be waiting to start. When the limit is reached, the admission policy determines
+     * what happens to newly scheduled work. Zero, the default, means no limit.
+     *
+     * @param queueLimit the maximum number of work items waiting to start or zero
+     */
+    public void setQueueLimit(int queueLimit) {
+        if (queueLimit < 0) {
+            throw new IllegalArgumentException("Queue limit cannot be negative: " + queueLimit);
+        }
+        this.queueLimit = queueLimit;
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * Sets the policy applied when the queue limit is reached. Defaults to {@link AdmissionPolicy#REJECT}.
+     *
+     * @param admissionPolicy the admission policy
+     */
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        if (admissionPolicy == null) {
+            throw new IllegalArgumentException("Admission policy cannot be null");
+        }
+        this.admissionPolicy = admissionPolicy;
+    }
+
+    public long getAdmissionTimeout() {
+        return admissionTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a scheduling thread blocks for under {@link AdmissionPolicy#BLOCK} before the work is rejected. Defaults to
+     * one second.
+     *
+     * @param admissionTimeout the timeout in milliseconds
+     */
+    public void setAdmissionTimeout(long admissionTimeout) {
+        if (admissionTimeout < 0) {
+            throw new IllegalArgumentException("Admission timeout cannot be negative: " + admissionTimeout);
+        }
+        this.admissionTimeout = admissionTimeout;
+    }
+
+    public long getPriorityAging() {
+        return priorityAging;
+    }
+
+    /**
+     * Sets the time in milliseconds a work item must wait to gain one level of priority under {@link ExecutionMode#PRIORITY}. For example, with
+     * the default of 100 milliseconds, work of priority 0 that has been waiting for a second is started ahead of newly scheduled work of priority
+     * 9. Zero disables aging, in which case work is strictly ordered by priority and low priority work can be starved.
+     *
+     * @param priorityAging the aging interval in milliseconds
+     */
+    public void setPriorityAging(long priorityAging) {
+        if (priorityAging < 0) {
+            throw new IllegalArgumentException("Priority aging cannot be negative: " + priorityAging);
+        }
+        this.priorityAging = priorityAging;
+    }
+
+    public int getAffinityStripes() {
+        return affinityStripes;
+    }
+
+    /**
+     * Sets the number of lanes that work scheduled with an affinity key is striped across, rounded up to the next power of two. Work in the same
+     * lane runs one item at a time, so this bounds the number of keys whose work can run in parallel. Defaults to 256.
+     *
+     * @param affinityStripes the number of lanes
+     */
+    public void setAffinityStripes(int affinityStripes) {
+        if (affinityStripes < 1) {
+            throw new IllegalArgumentException("Affinity stripes must be greater than zero: " + affinityStripes);
+        }
+        this.affinityStripes = affinityStripes;
+    }
+
+    public boolean isLatencyMetrics() {
+        return latencyMetrics;
+    }
+
+    /**
+     * Sets whether the queue wait and run time of work items are recorded for the work manager as a whole. Defaults to true.
+     *
+     * @param latencyMetrics true if latencies should be recorded
+     */
+    public void setLatencyMetrics(boolean latencyMetrics) {
+        this.latencyMetrics = latencyMetrics;
+    }
+
+    public boolean isWorkClassMetrics() {
+        return workClassMetrics;
+    }
+
+    /**
+     * Sets whether latencies are also recorded per Work class when latency metrics are enabled. Each Work class gets its own histograms, which
+     * take about 170 kilobytes plus about 10 kilobytes per worker thread, so this is intended for applications with a small, fixed set of Work
+     * classes. The metrics do
+     * not keep Work classes loaded. Defaults to false.
+     *
+     * @param workClassMetrics true if latencies should be recorded per Work class
+     */
+    public void setWorkClassMetrics(boolean workClassMetrics) {
+        this.workClassMetrics = workClassMetrics;
+    }
+
+    public boolean isManagementEnabled() {
+        return managementEnabled;
+    }
+
+    /**
+     * Sets whether the work manager registers a {@link WorkManagerMXBean} with the platform MBean server. The MBean is registered under
+     * <code>org.fabric3.commonj:type=WorkManager,name=&lt;name&gt;</code>, so the work manager name must be unique. The MBean is unregistered
+     * when the work manager is shut down. Defaults to false.
+     *
+     * @param managementEnabled true if the MBean should be registered
+     */
+    public void setManagementEnabled(boolean managementEnabled) {
+        this.managementEnabled = managementEnabled;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * Sets whether the number of worker threads that may run work concurrently is adjusted at runtime. The limit is reduced when the run time of
+     * work increases, indicating contention, and raised while work is waiting and the admitted workers are busy, faster while the queue wait
+     * of work is above its long-term average. It is kept between the minimum parallelism and the parallelism, and starts at the lower of the
+     * parallelism and the number of available processors. Adaptive concurrency is not supported with {@link ExecutionMode#VIRTUAL_THREADS}.
+     * Defaults to false.
+     *
+     * @param adaptiveConcurrency true if the concurrency limit should be adjusted at runtime
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public int getMinParallelism() {
+        return minParallelism;
+    }
+
+    /**
+     * Sets the lower bound of the concurrency limit when adaptive concurrency is enabled. Defaults to one.
+     *
+     * @param minParallelism the lower bound of the concurrency limit
+     */
+    public void setMinParallelism(int minParallelism) {
+        if (minParallelism < 1) {
+            throw new IllegalArgumentException("Minimum parallelism must be greater than zero: " + minParallelism);
+        }
+        this.minParallelism = minParallelism;
+    }
+
+    public long getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    /**
+     * Sets the interval in milliseconds at which the concurrency limit is adjusted when adaptive concurrency is enabled. Defaults to 100
+     * milliseconds.
+     *
+     * @param adaptiveInterval the adjustment interval in milliseconds
+     */
+    public void setAdaptiveInterval(long adaptiveInterval) {
+        if (adaptiveInterval < 1) {
+            throw new IllegalArgumentException("Adaptive interval must be greater than zero: " + adaptiveInterval);
+        }
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Sets whether duplicate submissions of {@link IdempotentWork} are coalesced. When enabled, scheduling work whose idempotency key is equal to
+     * that of work waiting to start returns the work item of the waiting work instead of queueing another execution. Defaults to false.
+     *
+     * @param coalescing true if duplicate submissions should be coalesced
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public long getResultRetentionTime() {
+        return resultRetentionTime;
+    }
+
+    /**
+     * Sets the time in milliseconds the result of completed work is retained. Once the time has passed, {@link commonj.work.Work#release()} is
+     * called, the work item no longer references the Work and {@link DefaultWorkItem#getResult()} throws a {@link ResultReleasedException}.
+     * Zero releases results as soon as the work has completed and its listener and waiting threads have been notified. Defaults to
+     * Long.MAX_VALUE, which retains results for as long as the work item is reachable.
+     *
+     * @param resultRetentionTime the retention time in milliseconds
+     */
+    public void setResultRetentionTime(long resultRetentionTime) {
+        if (resultRetentionTime < 0) {
+            throw new IllegalArgumentException("Result retention time cannot be negative: " + resultRetentionTime);
+        }
+        this.resultRetentionTime = resultRetentionTime;
+    }
+
+    public int getResultRetentionCount() {
+        return resultRetentionCount;
+    }
+
+    /**
+     * Sets the maximum number of completed results retained. When the maximum is exceeded, the oldest result is released as described in {@link
+     * #setResultRetentionTime(long)}. Defaults to Integer.MAX_VALUE, which retains all results.
+     *
+     * @param resultRetentionCount the maximum number of results retained
+     */
+    public void setResultRetentionCount(int resultRetentionCount) {
+        if (resultRetentionCount < 0) {
+            throw new IllegalArgumentException("Result retention count cannot be negative: " + resultRetentionCount);
+        }
+        this.resultRetentionCount = resultRetentionCount;
+    }
+
+    public boolean isNodeAware() {
+        return nodeAware;
+    }
+
+    /**
+     * Sets whether workers are divided into groups, one per NUMA node as read from <code>/sys/devices/system/node</code> or one per configured
+     * CPU set. Work scheduled from outside the work manager is queued in the group of the CPU the scheduling thread is running on, and workers
+     * take work from other groups only when their own group has none. Groups are logical unless workers are bound to their CPUs, see
+     * {@link #setBindWorkers(boolean)}. If the host does not report NUMA nodes, workers are not grouped. Only supported with
+     * {@link ExecutionMode#WORK_STEALING}. Defaults to false.
+     *
+     * @param nodeAware true if workers should be grouped by NUMA node or CPU set
+     */
+    public void setNodeAware(boolean nodeAware) {
+        this.nodeAware = nodeAware;
+    }
+
+    public String getCpuSets() {
+        return cpuSets;
+    }
+
+    /**
+     * Sets the CPU sets used to group workers when node awareness is enabled, instead of the NUMA nodes of the host. Sets are separated by
+     * semicolons and each is a CPU list in the sysfs format, for example <code>0-7,16-23;8-15,24-31</code>. Defaults to null.
+     *
+     * @param cpuSets the CPU sets or null to use the NUMA nodes of the host
+     */
+    public void setCpuSets(String cpuSets) {
+        if (cpuSets != null) {
+            // validate eagerly
+            NodeTopology.parse(cpuSets);
+        }
+        this.cpuSets = cpuSets;
+    }
+
+    public boolean isBindWorkers() {
+        return bindWorkers;
+    }
+
+    /**
+     * Sets whether each worker binds itself to the CPUs of its group when node awareness is enabled, so that the groups match where workers run.
+     * Workers are bound by running <code>taskset</code> once per worker when the work manager is created. If any worker cannot be bound, for
+     * example because <code>taskset</code> is not installed or the CPUs are outside the CPU set of the process, work is spread across all workers
+     * instead of being placed by group. Defaults to false, in which case groups are logical and the process can be bound externally, for example
+     * with <code>numactl</code>.
+     *
+     * @param bindWorkers true if workers should be bound to the CPUs of their group
+     */
+    public void setBindWorkers(boolean bindWorkers) {
+        this.bindWorkers = bindWorkers;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.Map;
+
+/**
+ * The management interface of a {@link DefaultWorkManager}. Latencies are in nanoseconds; the queue wait of a work item is the time from it
+ * being accepted to being started, and its run time is the time from it being started to being completed. Latencies are only recorded if
+ * enabled in the {@link WorkManagerConfiguration}.
+ */
+public interface WorkManagerMXBean {
+
+    String getName();
+
+    boolean isShutdown();
+
+    /**
+     * Returns a snapshot of the number of work items accepted, queued, running, completed and rejected, computed from striped counters without
+     * locking.
+     *
+     * @return the statistics
+     */
+    WorkManagerStatistics getStatistics();
+
+    /**
+     * Returns the approximate number of work items waiting to be started.
+     *
+     * @return the approximate number of work items waiting to be started
+     */
+    int getQueuedCount();
+
+    long getRejectedCount();
+
+    long getDroppedCount();
+
+    long getCallerRunsCount();
+
+    long getCancelledCount();
+
+    long getExpiredCount();
+
+    /**
+     * Returns the number of submissions coalesced with work that was already waiting to start.
+     *
+     * @return the number of coalesced submissions
+     */
+    long getCoalescedCount();
+
+    /**
+     * Returns the number of results of completed work released under the result retention policy.
+     *
+     * @return the number of released results
+     */
+    long getReleasedResultCount();
+
+    /**
+     * Returns the queue wait of all work executed by the work manager.
+     *
+     * @return the queue wait
+     */
+    LatencySnapshot getQueueWait();
+
+    /**
+     * Returns the run time of all work executed by the work manager.
+     *
+     * @return the run time
+     */
+    LatencySnapshot getRunTime();
+
+    /**
+     * Returns the queue wait of work executed by the work manager, keyed by the name of the Work class. Empty unless per-class metrics are
+     * enabled.
+     *
+     * @return the queue wait by Work class
+     */
+    Map<String, LatencySnapshot> getQueueWaitByWorkClass();
+
+    /**
+     * Returns the run time of work executed by the work manager, keyed by the name of the Work class. Empty unless per-class metrics are
+     * enabled.
+     *
+     * @return the run time by Work class
+     */
+    Map<String, LatencySnapshot> getRunTimeByWorkClass();
+
+    /**
+     * Returns the number of worker threads that may currently run work. Unless adaptive concurrency is enabled, this is the configured
+     * parallelism.
+     *
+     * @return the concurrency limit
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Returns the ratio of the long-term to the recent average run time last computed by the adaptive concurrency controller. Values below one
+     * indicate that run time is increasing and the limit is being reduced.
+     *
+     * @return the gradient or 1.0 if adaptive concurrency is not enabled
+     */
+    double getConcurrencyGradient();
+
+    /**
+     * Returns the average queue wait of the work completed during the last interval in which the adaptive concurrency controller observed
+     * completions. The controller raises the limit faster while queue wait is above its long-term average.
+     *
+     * @return the average queue wait in nanoseconds or zero if adaptive concurrency is not enabled
+     */
+    long getConcurrencyQueueWait();
+
+    /**
+     * Returns the number of times the adaptive concurrency controller has raised the limit.
+     *
+     * @return the number of increases
+     */
+    long getConcurrencyLimitIncreases();
+
+    /**
+     * Returns the number of times the adaptive concurrency controller has lowered the limit.
+     *
+     * @return the number of decreases
+     */
+    long getConcurrencyLimitDecreases();
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the number of work items in each stage of their lifecycle. Counts include daemon work. A snapshot is taken without locking and is
+ * not atomic: work that changes state while the snapshot is taken may be counted in either stage.
+ */
+public final class WorkManagerStatistics {
+    private final long timestamp;
+    private final long acceptedCount;
+    private final long queuedCount;
+    private final long runningCount;
+    private final long completedCount;
+    private final long failedCount;
+    private final long rejectedCount;
+
+    @ConstructorProperties({"timestamp", "acceptedCount", "queuedCount", "runningCount", "completedCount", "failedCount", "rejectedCount"})
+    public WorkManagerStatistics(long timestamp,
+                                 long acceptedCount,
+                                 long queuedCount,
+                                 long runningCount,
+                                 long completedCount,
+                                 long failedCount,
+                                 long rejectedCount) {
+        this.timestamp = timestamp;
+        this.acceptedCount = acceptedCount;
+        this.queuedCount = queuedCount;
+        this.runningCount = runningCount;
+        this.completedCount = completedCount;
+        this.failedCount = failedCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    /**
+     * Returns the time the snapshot was taken, in milliseconds since the epoch.
+     *
+     * @return the time the snapshot was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the number of work items accepted since the work manager was created.
+     *
+     * @return the number of accepted work items
+     */
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    /**
+     * Returns the number of accepted work items that have not started or been rejected.
+     *
+     * @return the number of queued work items
+     */
+    public long getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * Returns the number of work items that have started and not completed.
+     *
+     * @return the number of running work items
+     */
+    public long getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * Returns the number of work items completed since the work manager was created, including work that completed with an exception.
+     *
+     * @return the number of completed work items
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Returns the number of work items that completed with an exception since the work manager was created.
+     *
+     * @return the number of failed work items
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Returns the number of work items rejected since the work manager was created, whether when they were scheduled or while queued.
+     *
+     * @return the number of rejected work items
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public String toString() {
+        return "WorkManagerStatistics[accepted=" + acceptedCount + ", queued=" + queuedCount + ", running=" + runningCount + ", completed="
+                + completedCount + ", failed=" + failedCount + ", rejected=" + rejectedCount + "]";
+    }
+
+}
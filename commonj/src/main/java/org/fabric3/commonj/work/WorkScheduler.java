@@ -0,0 +1,107 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+/**
+ * Executes non-daemon work items on behalf of a {@link DefaultWorkManager}.
+ */
+interface WorkScheduler {
+
+    /**
+     * Starts the scheduler.
+     */
+    void start();
+
+    /**
+     * Dispatches the work item for execution.
+     *
+     * @param item the work item
+     */
+    void execute(DefaultWorkItem item);
+
+    /**
+     * Dispatches a batch of work items for execution.
+     *
+     * @param items the array containing the work items
+     * @param count the number of work items in the array to dispatch, starting at index zero
+     */
+    void executeAll(DefaultWorkItem[] items, int count);
+
+    /**
+     * Returns true if the current thread is one of the scheduler's worker threads.
+     *
+     * @return true if the current thread is a worker thread
+     */
+    boolean isWorkerThread();
+
+    /**
+     * Removes a work item for the current worker thread to run while it waits for work it has forked, preferring work queued by the worker
+     * itself.
+     *
+     * @return the work item or null if no work is waiting or the current thread is not a worker thread
+     */
+    DefaultWorkItem pollLocal();
+
+    /**
+     * Removes the oldest work item waiting to be executed, or an approximation of it where the scheduler does not keep a global order.
+     *
+     * @return the work item or null if no work is waiting
+     */
+    DefaultWorkItem pollOldest();
+
+    /**
+     * Sets the maximum number of work items that may run concurrently. Schedulers that do not execute work on a fixed set of workers ignore the
+     * limit.
+     *
+     * @param limit the concurrency limit, clamped to between one and the number of workers
+     */
+    void setConcurrencyLimit(int limit);
+
+    /**
+     * Stops the scheduler once all dispatched work has been executed.
+     */
+    void shutdown();
+
+    /**
+     * Returns the approximate number of work items waiting to be executed.
+     *
+     * @return the approximate number of work items waiting to be executed
+     */
+    int getQueuedCount();
+
+}
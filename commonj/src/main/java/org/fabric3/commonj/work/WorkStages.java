@@ -0,0 +1,116 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import commonj.work.Work;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+
+/**
+ * Bridges WorkItems to CompletionStages so dependent work can be composed without blocking a thread in
+ * {@link WorkManager#waitForAny(java.util.Collection, long)}.
+ */
+public final class WorkStages {
+
+    private WorkStages() {
+    }
+
+    /**
+     * Schedules Work and returns a stage completed with the Work when it completes.
+     *
+     * @param workManager the WorkManager to schedule the Work with
+     * @param work        the Work
+     * @return the stage
+     * @throws WorkException if the Work cannot be scheduled
+     */
+    public static CompletionStage<Work> schedule(WorkManager workManager, Work work) throws WorkException {
+        return schedule(workManager, work, null);
+    }
+
+    /**
+     * Schedules Work and returns a stage completed with the Work when it completes. The stage is completed from the WorkListener callbacks, so
+     * this works with any WorkManager implementation.
+     *
+     * @param workManager the WorkManager to schedule the Work with
+     * @param work        the Work
+     * @param listener    can be null or a WorkListener that is notified of the progress of the Work before the stage is completed
+     * @return the stage
+     * @throws WorkException if the Work cannot be scheduled
+     */
+    public static CompletionStage<Work> schedule(WorkManager workManager, Work work, WorkListener listener) throws WorkException {
+        CompletionStageWorkListener stageListener = new CompletionStageWorkListener(work, listener);
+        workManager.schedule(work, stageListener);
+        return stageListener.getStage();
+    }
+
+    /**
+     * Returns a stage completed when the work item completes. {@link ObservableWorkItem}s, which include the work items of a
+     * {@link DefaultWorkManager} and of a {@link org.fabric3.commonj.work.remote.ProcessWorkManager}, can be adapted at any time. Work items
+     * from other WorkManager implementations can only be observed through a listener supplied when the Work is scheduled; use
+     * {@link #schedule(WorkManager, Work)} or a {@link CompletionStageWorkListener} for them.
+     *
+     * @param workItem the work item
+     * @return the stage
+     * @throws IllegalArgumentException if the work item is not observable
+     */
+    public static CompletionStage<Work> toCompletionStage(WorkItem workItem) {
+        if (!(workItem instanceof ObservableWorkItem)) {
+            throw new IllegalArgumentException("Work item must be scheduled with a CompletionStageWorkListener: " + workItem);
+        }
+        final CompletableFuture<Work> future = new CompletableFuture<Work>();
+        CompletionObserver observer = new CompletionObserver() {
+            public void completed(WorkItem item) {
+                try {
+                    future.complete(item.getResult());
+                } catch (WorkException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        };
+        if (!((ObservableWorkItem) workItem).addObserver(observer)) {
+            observer.completed(workItem);
+        }
+        return future;
+    }
+
+}
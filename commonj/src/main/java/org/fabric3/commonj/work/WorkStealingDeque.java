@@ -0,0 +1,148 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, array-backed work-stealing deque after Chase and Lev. A single owner thread pushes and pops elements at the bottom, so the most
+ * recently pushed element is taken first, while other threads steal the oldest element from the top. The owner takes elements without atomic
+ * read-modify-write operations except when it races thieves for the last element; thieves claim elements by advancing the top with a CAS.
+ */
+final class WorkStealingDeque<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLong top = new AtomicLong();
+    private volatile long bottom;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the deque capacity, rounded up to the next power of two
+     */
+    WorkStealingDeque(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        elements = new AtomicReferenceArray<E>(size);
+    }
+
+    /**
+     * Adds an element to the bottom of the deque. May only be called by the owner.
+     *
+     * @param element the element
+     * @return false if the deque is full
+     */
+    boolean push(E element) {
+        long b = bottom;
+        if (b - top.get() > mask) {
+            return false;
+        }
+        elements.lazySet((int) b & mask, element);
+        // the volatile write publishes the element to thieves
+        bottom = b + 1;
+        return true;
+    }
+
+    /**
+     * Removes the element at the bottom of the deque, which is the most recently pushed element. May only be called by the owner.
+     *
+     * @return the element or null if the deque is empty
+     */
+    E pop() {
+        long b = bottom - 1;
+        // reserve the bottom element before reading the top, so that a thief reading the top afterwards sees the reservation
+        bottom = b;
+        long t = top.get();
+        if (t > b) {
+            bottom = b + 1;
+            return null;
+        }
+        int index = (int) b & mask;
+        E element = elements.get(index);
+        if (t < b) {
+            // thieves cannot reach the bottom element while others remain
+            elements.lazySet(index, null);
+            return element;
+        }
+        // the last element: claim it against thieves
+        boolean claimed = top.compareAndSet(t, t + 1);
+        bottom = b + 1;
+        if (!claimed) {
+            return null;
+        }
+        elements.lazySet(index, null);
+        return element;
+    }
+
+    /**
+     * Removes the element at the top of the deque, which is the oldest element. May be called by any thread.
+     *
+     * @return the element or null if the deque is empty or the element was taken concurrently
+     */
+    E steal() {
+        for (; ; ) {
+            long t = top.get();
+            if (t >= bottom) {
+                return null;
+            }
+            int index = (int) t & mask;
+            E element = elements.get(index);
+            if (top.compareAndSet(t, t + 1)) {
+                // clear the slot unless the owner has already reused it
+                elements.compareAndSet(index, element, null);
+                return element;
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate number of elements in the deque.
+     *
+     * @return the approximate number of elements
+     */
+    int size() {
+        long size = bottom - top.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    boolean isEmpty() {
+        return bottom <= top.get();
+    }
+
+}
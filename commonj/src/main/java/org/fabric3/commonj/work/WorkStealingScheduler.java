@@ -0,0 +1,446 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatches work items to a fixed set of worker threads. Each worker owns a {@link WorkStealingDeque} for the work it schedules itself and an
+ * inbox for work scheduled by other threads, which is spread randomly across the inboxes so producers rarely contend on the same one. A worker
+ * takes the most recently scheduled work from its own deque first, so work it forks runs on the same thread while its data is still in cache,
+ * then the work in its inbox. A worker that runs out of local work steals the oldest work of the other workers before parking. Parked workers
+ * are kept on an {@link IdleStack} so scheduling work wakes at most one of them.
+ * <p/>
+ * When created with a {@link NodeTopology}, workers are divided into one group per NUMA node or CPU set, in proportion to the number of CPUs in
+ * each. Work scheduled from other threads is queued on a worker in the group of the CPU the scheduling thread is running on, and workers steal
+ * from the other workers in their group before stealing from other groups, so work crosses groups only when a group has run out of work.
+ * <p/>
+ * Groups are logical unless binding is requested, in which case each worker binds itself to the CPUs of its group when it starts, and
+ * {@link #start()} returns once every worker has tried. If any worker could not be bound, work scheduled from other threads is spread across all
+ * workers as if they were not grouped, since the group of a worker then says nothing about where it runs. The placement is settled before any
+ * work is scheduled and does not change afterwards.
+ */
+final class WorkStealingScheduler implements WorkScheduler {
+    private static final int PLACEMENT_REFRESH = 256;
+
+    private final Worker[] workers;
+    private final ConcurrentLinkedQueue<DefaultWorkItem> overflow = new ConcurrentLinkedQueue<DefaultWorkItem>();
+    private final IdleStack idle;
+    private final NodeTopology topology;
+    private final int[][] groups;
+    private final ThreadLocal<int[]> placement;
+    // counted down by each worker once it has tried to bind itself, or null if workers are not bound
+    private final CountDownLatch binding;
+    private volatile boolean bindingFailed;
+    // whether work scheduled from other threads is placed by group, settled when the scheduler starts
+    private volatile boolean grouped;
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor.
+     *
+     * @param name          the name used as a prefix for worker threads
+     * @param parallelism   the number of worker threads
+     * @param queueCapacity the capacity of each worker deque and inbox. Work is placed in a shared overflow queue when one is full.
+     * @param topology      the groups to divide workers into or null if workers are not grouped
+     * @param bind          true if workers should bind themselves to the CPUs of their group
+     */
+    WorkStealingScheduler(String name, int parallelism, int queueCapacity, NodeTopology topology, boolean bind) {
+        workers = new Worker[parallelism];
+        idle = new IdleStack(parallelism);
+        this.topology = topology;
+        binding = topology != null && bind ? new CountDownLatch(parallelism) : null;
+        int[] groupOf = topology != null ? assignGroups(parallelism, topology) : new int[parallelism];
+        groups = members(groupOf, topology != null ? topology.getGroupCount() : 1);
+        placement = topology != null ? new ThreadLocal<int[]>() {
+            protected int[] initialValue() {
+                return new int[]{-1, 0};
+            }
+        } : null;
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(name + "-worker-" + i, i, queueCapacity);
+            idle.register(i, workers[i]);
+        }
+        for (int i = 0; i < parallelism; i++) {
+            workers[i].setVictims(groups[groupOf[i]], groupOf);
+        }
+    }
+
+    /**
+     * Starts the workers. If workers are bound to the CPUs of their group, waits until every worker has tried to bind itself.
+     */
+    public void start() {
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        if (binding != null) {
+            boolean interrupted = false;
+            for (; ; ) {
+                try {
+                    binding.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            grouped = !bindingFailed;
+        } else {
+            grouped = topology != null;
+        }
+    }
+
+    public void execute(DefaultWorkItem item) {
+        if (!offer(workers[localIndex()], item)) {
+            overflow.offer(item);
+        }
+        idle.signal();
+    }
+
+    /**
+     * Spreads the work items in contiguous runs across the workers, starting with the current worker if the current thread is a worker, and
+     * wakes at most one parked worker per item.
+     */
+    public void executeAll(DefaultWorkItem[] items, int count) {
+        if (count == 0) {
+            return;
+        }
+        int length = idle.getLimit();
+        int start = localIndex();
+        int run = (count + length - 1) / length;
+        int next = 0;
+        for (int i = 0; i < length && next < count; i++) {
+            Worker worker = workers[(start + i) % length];
+            int end = Math.min(count, next + run);
+            while (next < end && offer(worker, items[next])) {
+                next++;
+            }
+        }
+        while (next < count) {
+            overflow.offer(items[next++]);
+        }
+        idle.signal(count);
+    }
+
+    public boolean isWorkerThread() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ((Worker) thread).scheduler() == this;
+    }
+
+    /**
+     * Pops the deque of the current worker, then polls its inbox, then steals from the other workers and the overflow queue.
+     */
+    public DefaultWorkItem pollLocal() {
+        return isWorkerThread() ? ((Worker) Thread.currentThread()).next() : null;
+    }
+
+    /**
+     * Steals from the top of the first non-empty worker deque or the head of the first non-empty inbox, falling back to the overflow queue. The
+     * result is the oldest work item of one deque or inbox, which approximates the oldest overall.
+     */
+    public DefaultWorkItem pollOldest() {
+        for (Worker worker : workers) {
+            DefaultWorkItem item = worker.deque.steal();
+            if (item == null) {
+                item = worker.inbox.poll();
+            }
+            if (item != null) {
+                return item;
+            }
+        }
+        return overflow.poll();
+    }
+
+    public void setConcurrencyLimit(int limit) {
+        idle.setLimit(Math.max(1, Math.min(limit, workers.length)));
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        idle.signalAll();
+    }
+
+    public int getQueuedCount() {
+        int count = overflow.size();
+        for (Worker worker : workers) {
+            count += worker.deque.size() + worker.inbox.size();
+        }
+        return count;
+    }
+
+    int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * Queues a work item on a worker: on its deque if the current thread is the worker, which is the only thread allowed to push to the deque,
+     * otherwise in its inbox.
+     *
+     * @param worker the worker
+     * @param item   the work item
+     * @return false if the deque or inbox is full
+     */
+    private boolean offer(Worker worker, DefaultWorkItem item) {
+        return worker == Thread.currentThread() ? worker.deque.push(item) : worker.inbox.offer(item);
+    }
+
+    /**
+     * Returns the index of the current thread if it is a worker of this scheduler, otherwise the index of a randomly selected worker that is not
+     * gated by the concurrency limit.
+     *
+     * @return the index
+     */
+    private int localIndex() {
+        if (isWorkerThread()) {
+            return ((Worker) Thread.currentThread()).index;
+        }
+        int limit = idle.getLimit();
+        if (grouped) {
+            int group = currentGroup();
+            if (group >= 0 && group < groups.length) {
+                // members are in ascending order, so those not gated by the concurrency limit are a prefix
+                int[] members = groups[group];
+                int count = 0;
+                while (count < members.length && members[count] < limit) {
+                    count++;
+                }
+                if (count > 0) {
+                    return members[ThreadLocalRandom.current().nextInt(count)];
+                }
+            }
+        }
+        return ThreadLocalRandom.current().nextInt(limit);
+    }
+
+    /**
+     * Returns the group of the CPU the current thread is running on. The group is cached per thread and refreshed periodically, since reading it
+     * takes a system call and threads migrate between CPUs infrequently.
+     *
+     * @return the group or -1 if it cannot be determined
+     */
+    private int currentGroup() {
+        int[] cached = placement.get();
+        if (--cached[1] < 0) {
+            cached[0] = topology.currentGroup();
+            cached[1] = PLACEMENT_REFRESH;
+        }
+        return cached[0];
+    }
+
+    /**
+     * Assigns workers to groups in proportion to the number of CPUs in each group. Workers are interleaved across groups, so limiting
+     * concurrency, which gates the workers with the highest indices, reduces the workers of each group evenly.
+     *
+     * @param parallelism the number of workers
+     * @param topology    the groups
+     * @return the group of each worker
+     */
+    private static int[] assignGroups(int parallelism, NodeTopology topology) {
+        int count = topology.getGroupCount();
+        int cpus = 0;
+        for (int i = 0; i < count; i++) {
+            cpus += topology.getCpuCount(i);
+        }
+        int[] assigned = new int[count];
+        int[] groupOf = new int[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            int best = 0;
+            double deficit = Double.NEGATIVE_INFINITY;
+            for (int group = 0; group < count; group++) {
+                double share = (double) (i + 1) * topology.getCpuCount(group) / cpus - assigned[group];
+                if (share > deficit) {
+                    deficit = share;
+                    best = group;
+                }
+            }
+            groupOf[i] = best;
+            assigned[best]++;
+        }
+        return groupOf;
+    }
+
+    private static int[][] members(int[] groupOf, int count) {
+        int[] sizes = new int[count];
+        for (int group : groupOf) {
+            sizes[group]++;
+        }
+        int[][] members = new int[count][];
+        for (int i = 0; i < count; i++) {
+            members[i] = new int[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (int i = 0; i < groupOf.length; i++) {
+            members[groupOf[i]][sizes[groupOf[i]]++] = i;
+        }
+        return members;
+    }
+
+    /**
+     * A worker thread.
+     */
+    private final class Worker extends Thread {
+        private final int index;
+        private final WorkStealingDeque<DefaultWorkItem> deque;
+        private final RingQueue<DefaultWorkItem> inbox;
+        private int group;
+        private int[] near;
+        private int[] far;
+
+        private Worker(String name, int index, int queueCapacity) {
+            super(name);
+            this.index = index;
+            this.deque = new WorkStealingDeque<DefaultWorkItem>(queueCapacity);
+            this.inbox = new RingQueue<DefaultWorkItem>(queueCapacity);
+            setDaemon(true);
+        }
+
+        public void run() {
+            if (binding != null) {
+                if (!topology.bind(group)) {
+                    bindingFailed = true;
+                }
+                binding.countDown();
+            }
+            for (; ; ) {
+                if (idle.isGated(index)) {
+                    if (shutdown) {
+                        return;
+                    }
+                    // work queued locally is stolen by the admitted workers
+                    LockSupport.park(this);
+                    continue;
+                }
+                DefaultWorkItem item = next();
+                if (item != null) {
+                    runItem(item);
+                } else if (shutdown) {
+                    return;
+                } else if (!idle.isIdle(index)) {
+                    // publish the worker as idle and rescan before parking so that work queued concurrently is not missed
+                    idle.push(index);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private WorkStealingScheduler scheduler() {
+            return WorkStealingScheduler.this;
+        }
+
+        /**
+         * Sets the workers this worker steals from, in order of preference: the workers in its group, then the others.
+         *
+         * @param group   the members of the worker's group
+         * @param groupOf the group of each worker
+         */
+        private void setVictims(int[] group, int[] groupOf) {
+            near = group;
+            far = new int[workers.length - group.length];
+            this.group = groupOf[index];
+            for (int i = 0, j = 0; i < groupOf.length; i++) {
+                if (groupOf[i] != this.group) {
+                    far[j++] = i;
+                }
+            }
+        }
+
+        private DefaultWorkItem next() {
+            DefaultWorkItem item = deque.pop();
+            if (item == null) {
+                item = inbox.poll();
+            }
+            if (item != null) {
+                return item;
+            }
+            item = steal(near);
+            if (item == null) {
+                // the group has run out of work
+                item = steal(far);
+            }
+            if (item != null) {
+                return item;
+            }
+            item = overflow.poll();
+            if (item != null && !overflow.isEmpty()) {
+                idle.signal();
+            }
+            return item;
+        }
+
+        private DefaultWorkItem steal(int[] victims) {
+            int length = victims.length;
+            if (length == 0) {
+                return null;
+            }
+            int start = ThreadLocalRandom.current().nextInt(length);
+            for (int i = 0; i < length; i++) {
+                Worker victim = workers[victims[(start + i) % length]];
+                if (victim == this) {
+                    continue;
+                }
+                DefaultWorkItem item = victim.deque.steal();
+                if (item == null) {
+                    item = victim.inbox.poll();
+                }
+                if (item != null) {
+                    if (!victim.deque.isEmpty() || !victim.inbox.isEmpty()) {
+                        // more work is available; wake another worker to help steal it
+                        idle.signal();
+                    }
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        private void runItem(DefaultWorkItem item) {
+            try {
+                item.run();
+            } catch (Throwable e) {
+                getUncaughtExceptionHandler().uncaughtException(this, e);
+            }
+        }
+    }
+
+}
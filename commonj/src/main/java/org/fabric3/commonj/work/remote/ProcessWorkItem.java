@@ -0,0 +1,263 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import commonj.work.RemoteWorkItem;
+import commonj.work.Work;
+import commonj.work.WorkCompletedException;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+import org.fabric3.commonj.work.CompletionObserver;
+import org.fabric3.commonj.work.DefaultWorkEvent;
+import org.fabric3.commonj.work.ObservableWorkItem;
+import org.fabric3.commonj.work.ResultReleasedException;
+
+/**
+ * The WorkItem returned by a {@link ProcessWorkManager}. The Work is executed in the worker process returned by {@link #getPinnedWorkManager()};
+ * the result is a copy of the Work, deserialized after it has run in the worker process.
+ * <p/>
+ * Releasing a work item that has not completed asks the worker process to release the Work, which frees its state there once the Work returns.
+ * Releasing a completed work item frees the local copy of the result, after which {@link #getResult()} throws a {@link ResultReleasedException}.
+ */
+public class ProcessWorkItem implements RemoteWorkItem, ObservableWorkItem {
+    private static final AtomicIntegerFieldUpdater<ProcessWorkItem> STATUS = AtomicIntegerFieldUpdater.newUpdater(ProcessWorkItem.class, "status");
+    private static final AtomicIntegerFieldUpdater<ProcessWorkItem> DONE = AtomicIntegerFieldUpdater.newUpdater(ProcessWorkItem.class, "done");
+
+    private final long id;
+    private final WorkerProcess process;
+    private final WorkListener listener;
+    private final String description;
+    private final ConcurrentLinkedQueue<CompletionObserver> observers = new ConcurrentLinkedQueue<CompletionObserver>();
+
+    private volatile int status;
+    // set once by the thread that completes or rejects the work, before the result and status are published
+    private volatile int done;
+    private volatile Work result;
+    private volatile WorkException exception;
+    private volatile boolean released;
+
+    ProcessWorkItem(long id, Work work, WorkListener listener, WorkerProcess process) {
+        this.id = id;
+        this.process = process;
+        this.listener = listener;
+        this.description = work.toString();
+    }
+
+    public Work getResult() throws WorkException {
+        WorkException exception = this.exception;
+        if (exception != null) {
+            throw exception;
+        }
+        if (status != WorkEvent.WORK_COMPLETED) {
+            return null;
+        }
+        if (released) {
+            throw new ResultReleasedException("The result of the work has been released: " + this);
+        }
+        return result;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void release() {
+        if (isDone()) {
+            released = true;
+            result = null;
+        } else {
+            process.release(this);
+        }
+    }
+
+    /**
+     * Returns the worker process the work is executed in.
+     *
+     * @return the worker process
+     */
+    public WorkManager getPinnedWorkManager() {
+        return process;
+    }
+
+    /**
+     * Returns true if the work has completed or was rejected.
+     *
+     * @return true if the work has completed or was rejected
+     */
+    public boolean isDone() {
+        int status = this.status;
+        return status == WorkEvent.WORK_COMPLETED || status == WorkEvent.WORK_REJECTED;
+    }
+
+    public boolean addObserver(CompletionObserver observer) {
+        if (isDone()) {
+            return false;
+        }
+        for (Iterator<CompletionObserver> i = observers.iterator(); i.hasNext(); ) {
+            if (i.next().isClosed()) {
+                // unlink observers of waits that have timed out
+                i.remove();
+            }
+        }
+        observers.offer(observer);
+        // observers are drained after the terminal status is published, so one added concurrently is either drained or removed here
+        return !(isDone() && observers.remove(observer));
+    }
+
+    public int compareTo(Object o) {
+        if (o == this) {
+            return 0;
+        }
+        if (o instanceof ProcessWorkItem) {
+            long other = ((ProcessWorkItem) o).id;
+            return id < other ? -1 : (id == other ? 0 : 1);
+        }
+        int hash = System.identityHashCode(this);
+        int other = System.identityHashCode(o);
+        return hash < other ? -1 : (hash == other ? 0 : 1);
+    }
+
+    public String toString() {
+        return "WorkItem[" + description + ", process=" + process.getIndex() + ", status=" + status + "]";
+    }
+
+    long getId() {
+        return id;
+    }
+
+    void accepted() {
+        if (STATUS.compareAndSet(this, 0, WorkEvent.WORK_ACCEPTED)) {
+            fire(WorkEvent.WORK_ACCEPTED, null);
+        }
+    }
+
+    void started() {
+        if (done == 0 && STATUS.compareAndSet(this, WorkEvent.WORK_ACCEPTED, WorkEvent.WORK_STARTED)) {
+            fire(WorkEvent.WORK_STARTED, null);
+        }
+    }
+
+    /**
+     * Marks the work as completed with the given result unless it has already completed or been rejected.
+     *
+     * @param result the Work returned by the worker process
+     */
+    void completed(Work result) {
+        if (!DONE.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        this.result = result;
+        status = WorkEvent.WORK_COMPLETED;
+        fire(WorkEvent.WORK_COMPLETED, null);
+        signal();
+        process.completed(this);
+    }
+
+    /**
+     * Marks the work as rejected if it had not started or as completed with an exception otherwise, unless it has already completed or been
+     * rejected.
+     *
+     * @param e the exception
+     */
+    void failed(WorkException e) {
+        if (!DONE.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        exception = e;
+        int terminal;
+        for (; ; ) {
+            // the status may still move from accepted to started until the terminal status is set
+            int current = status;
+            boolean rejected = current == WorkEvent.WORK_ACCEPTED && !(e instanceof WorkCompletedException);
+            terminal = rejected ? WorkEvent.WORK_REJECTED : WorkEvent.WORK_COMPLETED;
+            if (STATUS.compareAndSet(this, current, terminal)) {
+                break;
+            }
+        }
+        fire(terminal, e);
+        signal();
+        process.completed(this);
+    }
+
+    /**
+     * Notifies registered observers that the work is done.
+     */
+    private void signal() {
+        for (CompletionObserver observer = observers.poll(); observer != null; observer = observers.poll()) {
+            try {
+                observer.completed(this);
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    private void fire(int type, WorkException e) {
+        if (listener == null) {
+            return;
+        }
+        WorkEvent event = new DefaultWorkEvent(type, this, e);
+        try {
+            switch (type) {
+            case WorkEvent.WORK_ACCEPTED:
+                listener.workAccepted(event);
+                break;
+            case WorkEvent.WORK_REJECTED:
+                listener.workRejected(event);
+                break;
+            case WorkEvent.WORK_STARTED:
+                listener.workStarted(event);
+                break;
+            case WorkEvent.WORK_COMPLETED:
+                listener.workCompleted(event);
+                break;
+            }
+        } catch (RuntimeException ex) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+        }
+    }
+
+}
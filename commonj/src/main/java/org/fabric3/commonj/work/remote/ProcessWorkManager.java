@@ -0,0 +1,297 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import commonj.work.Work;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+import commonj.work.WorkRejectedException;
+import org.fabric3.commonj.work.WorkItems;
+
+/**
+ * A WorkManager that executes serializable Work in a set of local worker JVMs, so that CPU-intensive work can use several processes per host.
+ * <p/>
+ * Worker processes are started when the work manager is created and connect back over the loopback interface, authenticating with a random
+ * token passed in their environment. Work is serialized and placed in the worker process with the fewest work items in flight; the process is
+ * returned by {@link commonj.work.RemoteWorkItem#getPinnedWorkManager()} and can also be used to place work explicitly. When the Work has run,
+ * it is serialized back and returned as the result. If a worker process exits, work placed in it is rejected or, if it had started, completed
+ * with an exception, and no further work is placed in it.
+ * <p/>
+ * The context classloader of the thread creating the work manager is used to deserialize results.
+ */
+public class ProcessWorkManager implements WorkManager {
+    private final String name;
+    private final ClassLoader classLoader;
+    private final WorkerProcess[] processes;
+    private final AtomicLong ids = new AtomicLong();
+    private volatile boolean shutdown;
+
+    /**
+     * Creates the work manager and starts its worker processes.
+     *
+     * @param configuration the configuration
+     * @throws IllegalStateException if the worker processes cannot be started or do not connect within the start timeout
+     */
+    public ProcessWorkManager(ProcessWorkManagerConfiguration configuration) {
+        name = configuration.getName();
+        classLoader = Thread.currentThread().getContextClassLoader();
+        processes = new WorkerProcess[configuration.getProcesses()];
+        ServerSocket server = null;
+        try {
+            server = new ServerSocket(0, processes.length, InetAddress.getLoopbackAddress());
+            String token = new BigInteger(130, new SecureRandom()).toString(32);
+            for (int i = 0; i < processes.length; i++) {
+                processes[i] = new WorkerProcess(this, i, launch(configuration, server.getLocalPort(), i, token));
+            }
+            accept(server, token, configuration.getStartTimeout());
+        } catch (IOException e) {
+            destroy();
+            throw new IllegalStateException("Unable to start worker processes: " + name, e);
+        } catch (RuntimeException e) {
+            destroy();
+            throw e;
+        } finally {
+            if (server != null) {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public WorkItem schedule(Work work) throws WorkException, IllegalArgumentException {
+        return schedule(work, null);
+    }
+
+    public WorkItem schedule(Work work, WorkListener listener) throws WorkException, IllegalArgumentException {
+        return schedule(work, listener, select());
+    }
+
+    /**
+     * Waits for all work items to complete. Work items of this work manager wake the waiting thread when the last of them completes; work items
+     * from other WorkManager implementations are polled.
+     */
+    public boolean waitForAll(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        return WorkItems.waitForAll(workItems, timeout_ms);
+    }
+
+    public Collection waitForAny(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        return WorkItems.waitForAny(workItems, timeout_ms);
+    }
+
+    /**
+     * Returns the worker processes.
+     *
+     * @return the worker processes
+     */
+    public List<WorkerProcess> getProcesses() {
+        return Collections.unmodifiableList(Arrays.asList(processes));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Shuts down the worker processes. Work that has not completed is rejected or completed with an exception.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (WorkerProcess process : processes) {
+            process.shutdown();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Dispatches Work to the given worker process.
+     *
+     * @param work     the Work
+     * @param listener the listener or null
+     * @param process  the worker process
+     * @return the work item
+     * @throws WorkException            if the work cannot be sent to the worker process
+     * @throws IllegalArgumentException if the work is null or not serializable
+     */
+    WorkItem schedule(Work work, WorkListener listener, WorkerProcess process) throws WorkException, IllegalArgumentException {
+        if (work == null) {
+            throw new IllegalArgumentException("Work cannot be null");
+        }
+        if (!(work instanceof Serializable)) {
+            throw new IllegalArgumentException("Work must be serializable: " + work.getClass().getName());
+        }
+        if (shutdown) {
+            throw new WorkRejectedException("Work manager is shut down: " + name);
+        }
+        byte[] payload;
+        try {
+            payload = Protocol.serialize(work);
+        } catch (NotSerializableException e) {
+            throw new IllegalArgumentException("Work must be serializable: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new WorkRejectedException("Unable to serialize work: " + work, e);
+        }
+        ProcessWorkItem item = new ProcessWorkItem(ids.incrementAndGet(), work, listener, process);
+        item.accepted();
+        try {
+            process.submit(item, payload);
+        } catch (WorkRejectedException e) {
+            item.failed(e);
+            throw e;
+        }
+        return item;
+    }
+
+    ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Returns the live worker process with the fewest work items in flight.
+     *
+     * @return the worker process
+     * @throws WorkRejectedException if no worker process is alive
+     */
+    private WorkerProcess select() throws WorkRejectedException {
+        WorkerProcess selected = null;
+        int least = Integer.MAX_VALUE;
+        for (WorkerProcess process : processes) {
+            int inFlight = process.getInFlightCount();
+            if (process.isAlive() && inFlight < least) {
+                selected = process;
+                least = inFlight;
+            }
+        }
+        if (selected == null) {
+            throw new WorkRejectedException("No worker process is alive: " + name);
+        }
+        return selected;
+    }
+
+    private Process launch(ProcessWorkManagerConfiguration configuration, int port, int index, String token) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(configuration.getJavaCommand());
+        command.addAll(configuration.getJvmArguments());
+        command.add("-cp");
+        command.add(configuration.getClassPath());
+        command.add(WorkerMain.class.getName());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(index));
+        command.add(String.valueOf(configuration.getThreadsPerProcess()));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().put(Protocol.TOKEN_VARIABLE, token);
+        builder.inheritIO();
+        return builder.start();
+    }
+
+    /**
+     * Accepts and authenticates the connections from the worker processes.
+     *
+     * @param server  the server socket
+     * @param token   the authentication token
+     * @param timeout the time to wait for all worker processes in milliseconds
+     * @throws IOException if a connection cannot be accepted
+     */
+    private void accept(ServerSocket server, String token, long timeout) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        int connected = 0;
+        while (connected < processes.length) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IllegalStateException("Worker processes did not connect within " + timeout + " ms: " + name);
+            }
+            server.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            try {
+                socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+                DataInputStream in = WorkerProcess.openInput(socket);
+                String received = in.readUTF();
+                int index = in.readInt();
+                if (!token.equals(received) || index < 0 || index >= processes.length || processes[index].isAlive()) {
+                    socket.close();
+                    continue;
+                }
+                socket.setSoTimeout(0);
+                socket.setTcpNoDelay(true);
+                processes[index].connect(socket, in);
+                connected++;
+            } catch (IOException e) {
+                // a connection that fails the handshake is ignored
+                socket.close();
+            }
+        }
+    }
+
+    private void destroy() {
+        for (WorkerProcess process : processes) {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+
+}
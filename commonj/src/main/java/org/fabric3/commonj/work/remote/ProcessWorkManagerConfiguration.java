@@ -0,0 +1,169 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration for a {@link ProcessWorkManager}.
+ */
+public class ProcessWorkManagerConfiguration {
+    private String name = "ProcessWorkManager";
+    private int processes = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int threadsPerProcess = 2;
+    private String javaCommand = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    private String classPath = System.getProperty("java.class.path");
+    private List<String> jvmArguments = new ArrayList<String>();
+    private long startTimeout = 30000;
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the work manager.
+     *
+     * @param name the name
+     */
+    public void setName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        this.name = name;
+    }
+
+    public int getProcesses() {
+        return processes;
+    }
+
+    /**
+     * Sets the number of worker processes. Defaults to half the number of available processors.
+     *
+     * @param processes the number of worker processes
+     */
+    public void setProcesses(int processes) {
+        if (processes < 1) {
+            throw new IllegalArgumentException("Processes must be greater than zero: " + processes);
+        }
+        this.processes = processes;
+    }
+
+    public int getThreadsPerProcess() {
+        return threadsPerProcess;
+    }
+
+    /**
+     * Sets the number of threads each worker process uses to execute work. Defaults to two.
+     *
+     * @param threadsPerProcess the number of threads
+     */
+    public void setThreadsPerProcess(int threadsPerProcess) {
+        if (threadsPerProcess < 1) {
+            throw new IllegalArgumentException("Threads per process must be greater than zero: " + threadsPerProcess);
+        }
+        this.threadsPerProcess = threadsPerProcess;
+    }
+
+    public String getJavaCommand() {
+        return javaCommand;
+    }
+
+    /**
+     * Sets the command used to start worker JVMs. Defaults to the java executable of the current runtime.
+     *
+     * @param javaCommand the command
+     */
+    public void setJavaCommand(String javaCommand) {
+        if (javaCommand == null) {
+            throw new IllegalArgumentException("Java command cannot be null");
+        }
+        this.javaCommand = javaCommand;
+    }
+
+    public String getClassPath() {
+        return classPath;
+    }
+
+    /**
+     * Sets the classpath of worker JVMs, which must contain this module and the classes of the Work executed. Defaults to the classpath of the
+     * current JVM.
+     *
+     * @param classPath the classpath
+     */
+    public void setClassPath(String classPath) {
+        if (classPath == null) {
+            throw new IllegalArgumentException("Classpath cannot be null");
+        }
+        this.classPath = classPath;
+    }
+
+    public List<String> getJvmArguments() {
+        return jvmArguments;
+    }
+
+    /**
+     * Sets additional arguments passed to worker JVMs, for example heap settings.
+     *
+     * @param jvmArguments the arguments
+     */
+    public void setJvmArguments(List<String> jvmArguments) {
+        if (jvmArguments == null) {
+            throw new IllegalArgumentException("JVM arguments cannot be null");
+        }
+        this.jvmArguments = jvmArguments;
+    }
+
+    public long getStartTimeout() {
+        return startTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds to wait for worker processes to connect when the work manager is created. Defaults to 30 seconds.
+     *
+     * @param startTimeout the timeout in milliseconds
+     */
+    public void setStartTimeout(long startTimeout) {
+        if (startTimeout < 1) {
+            throw new IllegalArgumentException("Start timeout must be greater than zero: " + startTimeout);
+        }
+        this.startTimeout = startTimeout;
+    }
+
+}
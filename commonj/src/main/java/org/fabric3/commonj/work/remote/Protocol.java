@@ -0,0 +1,172 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * The messages exchanged between a {@link ProcessWorkManager} and its worker processes. Each message is a type byte followed by the id of the
+ * work item it concerns and, for messages that carry an object, the length and bytes of its serialized form. Objects are serialized separately
+ * from the connection stream so that a failure to serialize or deserialize one object does not corrupt the connection.
+ */
+final class Protocol {
+    /**
+     * The environment variable used to pass the authentication token to worker processes.
+     */
+    static final String TOKEN_VARIABLE = "FABRIC3_WORKER_TOKEN";
+
+    // parent to worker
+    static final byte SUBMIT = 1;
+    static final byte RELEASE = 2;
+    static final byte SHUTDOWN = 3;
+
+    // worker to parent
+    static final byte STARTED = 10;
+    static final byte COMPLETED = 11;
+    static final byte FAILED = 12;
+
+    private Protocol() {
+    }
+
+    /**
+     * Writes a message that does not carry an object.
+     *
+     * @param out  the stream
+     * @param type the message type
+     * @param id   the work item id
+     * @throws IOException if the message cannot be written
+     */
+    static void write(DataOutputStream out, byte type, long id) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeLong(id);
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes a message that carries a serialized object.
+     *
+     * @param out     the stream
+     * @param type    the message type
+     * @param id      the work item id
+     * @param payload the serialized object
+     * @throws IOException if the message cannot be written
+     */
+    static void write(DataOutputStream out, byte type, long id, byte[] payload) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeLong(id);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the payload of a message that carries an object.
+     *
+     * @param in the stream
+     * @return the serialized object
+     * @throws IOException if the payload cannot be read
+     */
+    static byte[] readPayload(DataInputStream in) throws IOException {
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Returns true if the message type carries an object.
+     *
+     * @param type the message type
+     * @return true if the message type carries an object
+     */
+    static boolean hasPayload(byte type) {
+        return type == SUBMIT || type == COMPLETED || type == FAILED;
+    }
+
+    static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] payload, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(payload), classLoader);
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Resolves classes using a given classloader before falling back to the default resolution.
+     */
+    private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+
+        private ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // fall through to the default resolution, which handles primitive types
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+}
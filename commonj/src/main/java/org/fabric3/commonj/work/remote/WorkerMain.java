@@ -0,0 +1,227 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+
+import commonj.work.RemoteWorkItem;
+import commonj.work.Work;
+import commonj.work.WorkCompletedException;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkListener;
+import org.fabric3.commonj.work.DefaultWorkManager;
+import org.fabric3.commonj.work.WorkManagerConfiguration;
+
+/**
+ * The entry point of a worker process started by a {@link ProcessWorkManager}. The worker connects to the parent over the loopback interface,
+ * authenticates with the token passed in its environment and executes the Work it receives on a local {@link DefaultWorkManager}, reporting
+ * progress and results back to the parent. The state kept for a work item is freed when its result has been sent. The worker exits when the
+ * parent shuts it down or the connection is lost.
+ */
+public final class WorkerMain {
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final DefaultWorkManager workManager;
+    private final ConcurrentHashMap<Long, RemoteWorkItem> items = new ConcurrentHashMap<Long, RemoteWorkItem>();
+
+    private WorkerMain(Socket socket, DefaultWorkManager workManager) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.workManager = workManager;
+    }
+
+    /**
+     * Starts the worker.
+     *
+     * @param args the parent port, the index of the worker and the number of threads used to execute work
+     * @throws Exception if the worker cannot connect to the parent
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: WorkerMain <port> <index> <threads>");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        int index = Integer.parseInt(args[1]);
+        WorkManagerConfiguration configuration = new WorkManagerConfiguration();
+        configuration.setName("Worker-" + index);
+        configuration.setParallelism(Integer.parseInt(args[2]));
+        configuration.setLatencyMetrics(false);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        DefaultWorkManager workManager = new DefaultWorkManager(configuration);
+        WorkerMain worker = new WorkerMain(socket, workManager);
+        try {
+            worker.out.writeUTF(String.valueOf(System.getenv(Protocol.TOKEN_VARIABLE)));
+            worker.out.writeInt(index);
+            worker.out.flush();
+            worker.run();
+        } finally {
+            workManager.shutdown();
+            socket.close();
+        }
+    }
+
+    private void run() throws IOException {
+        for (; ; ) {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                // the parent has gone away
+                return;
+            }
+            long id = in.readLong();
+            switch (type) {
+            case Protocol.SUBMIT:
+                submit(id, Protocol.readPayload(in));
+                break;
+            case Protocol.RELEASE:
+                RemoteWorkItem item = items.get(id);
+                if (item != null) {
+                    item.release();
+                }
+                break;
+            case Protocol.SHUTDOWN:
+                return;
+            default:
+                throw new IOException("Unknown message type: " + type);
+            }
+        }
+    }
+
+    private void submit(long id, byte[] payload) throws IOException {
+        Work work;
+        try {
+            work = (Work) Protocol.deserialize(payload, Thread.currentThread().getContextClassLoader());
+        } catch (Exception e) {
+            failed(id, new WorkCompletedException("Unable to deserialize work: " + e.getMessage(), e));
+            return;
+        }
+        try {
+            // DefaultWorkManager returns remote work items, which can be released
+            RemoteWorkItem item = (RemoteWorkItem) workManager.schedule(work, new Listener(id));
+            items.put(id, item);
+            int status = item.getStatus();
+            if (status == WorkEvent.WORK_COMPLETED || status == WorkEvent.WORK_REJECTED) {
+                // completed before it was registered
+                items.remove(id, item);
+            }
+        } catch (WorkException e) {
+            failed(id, e);
+        }
+    }
+
+    private void completed(long id, WorkEvent event) {
+        items.remove(id);
+        try {
+            WorkException e = event.getException();
+            if (e != null) {
+                failed(id, e);
+                return;
+            }
+            byte[] result;
+            try {
+                result = Protocol.serialize(event.getWorkItem().getResult());
+            } catch (Exception ex) {
+                failed(id, new WorkCompletedException("Unable to serialize the result of work: " + ex.getMessage(), ex));
+                return;
+            }
+            Protocol.write(out, Protocol.COMPLETED, id, result);
+        } catch (IOException e) {
+            // the connection is lost; the reader thread exits
+        }
+    }
+
+    private void failed(long id, WorkException e) throws IOException {
+        items.remove(id);
+        byte[] payload;
+        try {
+            payload = Protocol.serialize(e);
+        } catch (IOException ex) {
+            // the cause is not serializable, so send the message only
+            payload = Protocol.serialize(new WorkCompletedException(String.valueOf(e.getMessage())));
+        }
+        Protocol.write(out, Protocol.FAILED, id, payload);
+    }
+
+    /**
+     * Reports the progress of a work item to the parent.
+     */
+    private final class Listener implements WorkListener {
+        private final long id;
+
+        private Listener(long id) {
+            this.id = id;
+        }
+
+        public void workAccepted(WorkEvent we) {
+        }
+
+        public void workRejected(WorkEvent we) {
+            try {
+                WorkException e = we.getException();
+                failed(id, e != null ? e : new WorkCompletedException("Work rejected by worker process"));
+            } catch (IOException e) {
+                // the connection is lost
+            }
+        }
+
+        public void workStarted(WorkEvent we) {
+            try {
+                Protocol.write(out, Protocol.STARTED, id);
+            } catch (IOException e) {
+                // the connection is lost
+            }
+        }
+
+        public void workCompleted(WorkEvent we) {
+            completed(id, we);
+        }
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import commonj.work.Work;
+import commonj.work.WorkCompletedException;
+import commonj.work.WorkEvent;
+import commonj.work.WorkException;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+import commonj.work.WorkRejectedException;
+
+/**
+ * A worker JVM started by a {@link ProcessWorkManager}. A worker process is the pinned WorkManager of the work items executed in it; scheduling
+ * Work directly on a worker process places it in that process.
+ */
+public class WorkerProcess implements WorkManager {
+    private static final AtomicIntegerFieldUpdater<WorkerProcess> TERMINATED =
+            AtomicIntegerFieldUpdater.newUpdater(WorkerProcess.class, "terminated");
+    private static final long EXIT_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    private final ProcessWorkManager workManager;
+    private final int index;
+    private final Process process;
+    private final ConcurrentHashMap<Long, ProcessWorkItem> items = new ConcurrentHashMap<Long, ProcessWorkItem>();
+    private Socket socket;
+    private DataOutputStream out;
+    private volatile boolean alive;
+    private volatile int terminated;
+
+    WorkerProcess(ProcessWorkManager workManager, int index, Process process) {
+        this.workManager = workManager;
+        this.index = index;
+        this.process = process;
+    }
+
+    public WorkItem schedule(Work work) throws WorkException, IllegalArgumentException {
+        return workManager.schedule(work, null, this);
+    }
+
+    public WorkItem schedule(Work work, WorkListener listener) throws WorkException, IllegalArgumentException {
+        return workManager.schedule(work, listener, this);
+    }
+
+    public boolean waitForAll(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        return workManager.waitForAll(workItems, timeout_ms);
+    }
+
+    public Collection waitForAny(Collection workItems, long timeout_ms) throws InterruptedException, IllegalArgumentException {
+        return workManager.waitForAny(workItems, timeout_ms);
+    }
+
+    /**
+     * Returns the index of the worker process within its work manager.
+     *
+     * @return the index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns true if the worker process is connected and accepting work.
+     *
+     * @return true if the worker process is alive
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Returns the number of work items placed in the worker process that have not completed.
+     *
+     * @return the number of work items in flight
+     */
+    public int getInFlightCount() {
+        return items.size();
+    }
+
+    public String toString() {
+        return "WorkerProcess[" + index + "]";
+    }
+
+    /**
+     * Attaches the authenticated connection from the worker process and starts reading its messages.
+     *
+     * @param socket the connection
+     * @param in     the input stream of the connection, positioned after the handshake
+     * @throws IOException if the connection cannot be used
+     */
+    void connect(Socket socket, DataInputStream in) throws IOException {
+        this.socket = socket;
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        alive = true;
+        final DataInputStream input = in;
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                read(input);
+            }
+        }, workManager.getName() + "-process-" + index);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    static DataInputStream openInput(Socket socket) throws IOException {
+        return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * Sends Work to the worker process.
+     *
+     * @param item    the work item
+     * @param payload the serialized Work
+     * @throws WorkRejectedException if the worker process is not alive
+     */
+    void submit(ProcessWorkItem item, byte[] payload) throws WorkRejectedException {
+        if (!alive) {
+            throw new WorkRejectedException("Worker process is not alive: " + index);
+        }
+        items.put(item.getId(), item);
+        if (!alive && items.remove(item.getId()) != null) {
+            // terminated concurrently without seeing the work item
+            throw new WorkRejectedException("Worker process is not alive: " + index);
+        }
+        try {
+            Protocol.write(out, Protocol.SUBMIT, item.getId(), payload);
+        } catch (IOException e) {
+            items.remove(item.getId());
+            terminated();
+            throw new WorkRejectedException("Unable to send work to worker process: " + index, e);
+        }
+    }
+
+    /**
+     * Asks the worker process to release the Work of a work item that has not completed.
+     *
+     * @param item the work item
+     */
+    void release(ProcessWorkItem item) {
+        if (!alive) {
+            return;
+        }
+        try {
+            Protocol.write(out, Protocol.RELEASE, item.getId());
+        } catch (IOException e) {
+            terminated();
+        }
+    }
+
+    /**
+     * Called when a work item placed in the worker process is done.
+     *
+     * @param item the work item
+     */
+    void completed(ProcessWorkItem item) {
+        items.remove(item.getId());
+    }
+
+    /**
+     * Asks the worker process to exit, forcibly terminating it if it does not exit within a few seconds.
+     */
+    void shutdown() {
+        if (alive) {
+            try {
+                Protocol.write(out, Protocol.SHUTDOWN, 0);
+            } catch (IOException e) {
+                // the process has already exited
+            }
+        }
+        try {
+            long deadline = System.currentTimeMillis() + EXIT_TIMEOUT;
+            while (isRunning() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        process.destroy();
+        terminated();
+    }
+
+    void destroy() {
+        process.destroy();
+    }
+
+    private boolean isRunning() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private void read(DataInputStream in) {
+        try {
+            for (; ; ) {
+                byte type = in.readByte();
+                long id = in.readLong();
+                byte[] payload = Protocol.hasPayload(type) ? Protocol.readPayload(in) : null;
+                ProcessWorkItem item = items.get(id);
+                if (item == null) {
+                    continue;
+                }
+                switch (type) {
+                case Protocol.STARTED:
+                    item.started();
+                    break;
+                case Protocol.COMPLETED:
+                    try {
+                        item.completed((Work) Protocol.deserialize(payload, workManager.getClassLoader()));
+                    } catch (Exception e) {
+                        item.failed(new WorkCompletedException("Unable to deserialize the result of work: " + e.getMessage(), e));
+                    }
+                    break;
+                case Protocol.FAILED:
+                    WorkException exception;
+                    try {
+                        exception = (WorkException) Protocol.deserialize(payload, workManager.getClassLoader());
+                    } catch (Exception e) {
+                        exception = new WorkCompletedException("Work failed in worker process " + index, e);
+                    }
+                    item.failed(exception);
+                    break;
+                default:
+                    throw new IOException("Unknown message type: " + type);
+                }
+            }
+        } catch (IOException e) {
+            // the process has exited or the connection is lost
+        } finally {
+            terminated();
+        }
+    }
+
+    /**
+     * Marks the worker process as no longer alive and fails the work items placed in it. Called from the reader thread, from shutdown and when
+     * sending fails; only the first call has any effect.
+     */
+    private void terminated() {
+        if (!TERMINATED.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        alive = false;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        for (ProcessWorkItem item : items.values()) {
+            if (item.getStatus() == WorkEvent.WORK_ACCEPTED) {
+                item.failed(new WorkRejectedException("Worker process terminated before work started: " + index));
+            } else {
+                item.failed(new WorkCompletedException("Worker process terminated while work was running: " + index));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import commonj.timers.CancelTimerListener;
+import commonj.timers.StopTimerListener;
+import commonj.timers.Timer;
+import commonj.timers.TimerListener;
+import junit.framework.TestCase;
+
+/**
+ * Tests the expiry, cancellation, catch-up and lifecycle behaviour of {@link DefaultTimerManager}.
+ */
+public class DefaultTimerManagerTestCase extends TestCase {
+    private static final long TIMEOUT = 10000;
+
+    private DefaultTimerManager timerManager;
+
+    public void testOneShotTimersNeverExpireEarly() throws Exception {
+        int count = 20;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger early = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            final long delay = 5 + i * 3;
+            final long scheduled = System.nanoTime();
+            timerManager.schedule(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    if (System.nanoTime() - scheduled < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }, delay);
+        }
+        assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(0, early.get());
+    }
+
+    public void testRepeatingTimerCancelledFromListener() throws Exception {
+        final AtomicInteger expirations = new AtomicInteger();
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        timerManager.scheduleAtFixedRate(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                if (expirations.incrementAndGet() == 10) {
+                    assertTrue(timer.cancel());
+                    cancelled.countDown();
+                }
+            }
+        }, 0, 5);
+        assertTrue(cancelled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(50);
+        assertEquals(10, expirations.get());
+    }
+
+    public void testCancelledTimerDoesNotExpire() throws Exception {
+        final AtomicInteger expirations = new AtomicInteger();
+        final AtomicInteger cancellations = new AtomicInteger();
+        Timer timer = timerManager.schedule(new Listener(expirations, cancellations, null), 50);
+        assertTrue(timer.cancel());
+        assertFalse(timer.cancel());
+        assertEquals(1, cancellations.get());
+        Thread.sleep(100);
+        assertEquals(0, expirations.get());
+    }
+
+    public void testExpiredTimerCannotBeCancelled() throws Exception {
+        final Semaphore expired = new Semaphore(0);
+        Timer timer = timerManager.schedule(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                expired.release();
+            }
+        }, 1);
+        assertTrue(expired.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(10);
+        assertFalse(timer.cancel());
+    }
+
+    public void testScheduledExecutionTimeAdvancesByPeriod() throws Exception {
+        final AtomicLong first = new AtomicLong();
+        final AtomicLong third = new AtomicLong();
+        final CountDownLatch latch = new CountDownLatch(3);
+        Timer timer = timerManager.scheduleAtFixedRate(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                long time = timer.getScheduledExecutionTime();
+                if (latch.getCount() == 3) {
+                    first.set(time);
+                } else if (latch.getCount() == 1) {
+                    third.set(time);
+                }
+                latch.countDown();
+            }
+        }, 10, 20);
+        assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        timer.cancel();
+        assertEquals(40, third.get() - first.get());
+        assertEquals(20, timer.getPeriod());
+    }
+
+    public void testFireAllCatchesUp() throws Exception {
+        suspendAndResume(CatchUpPolicy.FIRE_ALL);
+        assertEquals(0, timerManager.getSkippedCount());
+    }
+
+    public void testSkipDropsMissedExecutions() throws Exception {
+        suspendAndResume(CatchUpPolicy.SKIP);
+        assertTrue(timerManager.getSkippedCount() > 0);
+    }
+
+    public void testCoalesceRunsMissedExecutionsOnce() throws Exception {
+        suspendAndResume(CatchUpPolicy.COALESCE);
+        assertTrue(timerManager.getSkippedCount() > 0);
+    }
+
+    public void testSlack() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(5);
+        Timer timer = timerManager.schedule(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                latch.countDown();
+            }
+        }, 0, 10, 2);
+        assertEquals(2, ((DefaultTimer) timer).getSlack());
+        assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        timer.cancel();
+        try {
+            timerManager.schedule(new Listener(null, null, null), 0, 10, -1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testStop() throws Exception {
+        final AtomicInteger stops = new AtomicInteger();
+        timerManager.schedule(new Listener(new AtomicInteger(), null, stops), 100000);
+        timerManager.stop();
+        assertTrue(timerManager.waitForStop(TIMEOUT));
+        assertTrue(timerManager.isStopped());
+        assertEquals(1, stops.get());
+        try {
+            timerManager.schedule(new Listener(null, null, null), 10);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        timerManager = new DefaultTimerManager();
+    }
+
+    protected void tearDown() throws Exception {
+        if (!timerManager.isStopping() && !timerManager.isStopped()) {
+            timerManager.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Suspends the timer manager while a fixed-rate timer is running, so that executions are missed, and resumes it.
+     */
+    private void suspendAndResume(CatchUpPolicy policy) throws Exception {
+        final Semaphore expirations = new Semaphore(0);
+        Timer timer = timerManager.scheduleAtFixedRate(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                expirations.release();
+            }
+        }, 0, 10, policy);
+        assertTrue(expirations.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS));
+        timerManager.suspend();
+        assertTrue(timerManager.waitForSuspend(TIMEOUT));
+        expirations.drainPermits();
+        Thread.sleep(100);
+        assertEquals(0, expirations.availablePermits());
+        timerManager.resume();
+        assertTrue(expirations.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(30);
+        timer.cancel();
+        int fired = expirations.availablePermits() + 1;
+        if (policy == CatchUpPolicy.FIRE_ALL) {
+            // the ten or so executions missed while suspended run back to back
+            assertTrue(policy + " fired " + fired, fired >= 9);
+        } else {
+            assertTrue(policy + " fired " + fired, fired < 9);
+        }
+    }
+
+    private static class Listener implements CancelTimerListener, StopTimerListener {
+        private final AtomicInteger expirations;
+        private final AtomicInteger cancellations;
+        private final AtomicInteger stops;
+
+        private Listener(AtomicInteger expirations, AtomicInteger cancellations, AtomicInteger stops) {
+            this.expirations = expirations;
+            this.cancellations = cancellations;
+            this.stops = stops;
+        }
+
+        public void timerExpired(Timer timer) {
+            expirations.incrementAndGet();
+        }
+
+        public void timerCancel(Timer timer) {
+            cancellations.incrementAndGet();
+        }
+
+        public void timerStop(Timer timer) {
+            stops.incrementAndGet();
+        }
+    }
+
+}
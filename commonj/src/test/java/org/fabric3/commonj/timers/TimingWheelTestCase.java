@@ -0,0 +1,193 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.timers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import commonj.timers.Timer;
+import commonj.timers.TimerListener;
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link TimingWheel} expires timers exactly at their tick, including timers cascaded from higher levels, and that removed timers do
+ * not expire.
+ */
+public class TimingWheelTestCase extends TestCase {
+    private static final TimerListener LISTENER = new TimerListener() {
+        public void timerExpired(Timer timer) {
+        }
+    };
+
+    private DefaultTimerManager timerManager;
+
+    public void testTimersExpireAtTheirTick() {
+        long now = 123456789;
+        TimingWheel wheel = new TimingWheel(now);
+        // the boundaries of the first three levels and a spread of ticks reaching the upper levels
+        long[] offsets = {1, 2, 511, 512, 513, 1023, 1024, 262143, 262144, 262145, 134217727, 134217728, 134217729};
+        List<DefaultTimer> timers = new ArrayList<DefaultTimer>();
+        for (long offset : offsets) {
+            timers.add(timer(now + offset));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            timers.add(timer(now + 1 + (random.nextLong() & ((1L << (1 + random.nextInt(40))) - 1))));
+        }
+        for (DefaultTimer timer : timers) {
+            wheel.add(timer);
+        }
+        assertEquals(timers.size(), wheel.size());
+
+        int expired = 0;
+        long previous = now;
+        for (long next = wheel.nextTick(); next != Long.MAX_VALUE; next = wheel.nextTick()) {
+            assertTrue(next > previous || next == wheel.getNow());
+            wheel.advance(next);
+            assertEquals(next, wheel.getNow());
+            for (DefaultTimer timer = wheel.poll(); timer != null; timer = wheel.poll()) {
+                assertEquals(timer.tick, wheel.getNow());
+                expired++;
+            }
+            previous = next;
+        }
+        assertEquals(timers.size(), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    public void testAdvanceInSteps() {
+        TimingWheel wheel = new TimingWheel(0);
+        Random random = new Random(7);
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            wheel.add(timer(1 + random.nextInt(1 << 20)));
+        }
+        int expired = 0;
+        long previous = 0;
+        for (long target = 1000; target <= (1 << 20) + 1000; target += 1000) {
+            wheel.advance(target);
+            assertEquals(target, wheel.getNow());
+            for (DefaultTimer timer = wheel.poll(); timer != null; timer = wheel.poll()) {
+                assertTrue(timer.tick > previous);
+                assertTrue(timer.tick <= target);
+                expired++;
+            }
+            previous = target;
+        }
+        assertEquals(count, expired);
+    }
+
+    public void testTimerAtOrBeforeNowIsDue() {
+        TimingWheel wheel = new TimingWheel(100);
+        DefaultTimer late = timer(50);
+        DefaultTimer current = timer(100);
+        wheel.add(late);
+        wheel.add(current);
+        assertEquals(0, wheel.size());
+        assertEquals(100, wheel.nextTick());
+        assertSame(late, wheel.poll());
+        assertSame(current, wheel.poll());
+        assertNull(wheel.poll());
+        assertEquals(Long.MAX_VALUE, wheel.nextTick());
+    }
+
+    public void testRemovedTimersDoNotExpire() {
+        TimingWheel wheel = new TimingWheel(0);
+        DefaultTimer first = timer(10);
+        DefaultTimer second = timer(10);
+        DefaultTimer third = timer(10);
+        DefaultTimer far = timer(1000000);
+        wheel.add(first);
+        wheel.add(second);
+        wheel.add(third);
+        wheel.add(far);
+        wheel.remove(second);
+        wheel.remove(third);
+        wheel.remove(far);
+        // removing a timer that is not in a slot has no effect
+        wheel.remove(far);
+        assertEquals(1, wheel.size());
+        assertEquals(10, wheel.nextTick());
+        wheel.advance(2000000);
+        assertSame(first, wheel.poll());
+        assertNull(wheel.poll());
+        assertEquals(Long.MAX_VALUE, wheel.nextTick());
+    }
+
+    public void testTicksAreClamped() {
+        TimingWheel wheel = new TimingWheel(0);
+        wheel.add(timer(Long.MAX_VALUE));
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.nextTick() <= TimingWheel.MAX_TICK);
+    }
+
+    public void testClear() {
+        TimingWheel wheel = new TimingWheel(0);
+        DefaultTimer due = timer(0);
+        wheel.add(due);
+        wheel.add(timer(5));
+        wheel.add(timer(5000));
+        wheel.add(timer(5000000));
+        int cleared = 0;
+        for (DefaultTimer timer = wheel.clear(); timer != null; timer = timer.next) {
+            cleared++;
+        }
+        assertEquals(4, cleared);
+        assertEquals(0, wheel.size());
+        assertNull(wheel.poll());
+        assertEquals(Long.MAX_VALUE, wheel.nextTick());
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        timerManager = new DefaultTimerManager();
+    }
+
+    protected void tearDown() throws Exception {
+        timerManager.stop();
+        super.tearDown();
+    }
+
+    private DefaultTimer timer(long tick) {
+        DefaultTimer timer = new DefaultTimer(LISTENER, timerManager, null, 0, false, CatchUpPolicy.FIRE_ALL, 0, 0, 0);
+        timer.tick = tick;
+        return timer;
+    }
+
+}
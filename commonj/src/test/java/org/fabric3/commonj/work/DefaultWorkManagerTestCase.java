@@ -0,0 +1,457 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import commonj.work.Work;
+import commonj.work.WorkCompletedException;
+import commonj.work.WorkEvent;
+import commonj.work.WorkItem;
+import commonj.work.WorkListener;
+import commonj.work.WorkManager;
+import commonj.work.WorkRejectedException;
+import junit.framework.TestCase;
+
+/**
+ * Tests the lifecycle of work scheduled on a {@link DefaultWorkManager}: event ordering, waiting, cancellation, fork/join, shutdown and the
+ * wakeup of parked workers.
+ */
+public class DefaultWorkManagerTestCase extends TestCase {
+    private static final long TIMEOUT = 10000;
+
+    private DefaultWorkManager workManager;
+
+    public void testEventsAreDeliveredInOrder() throws Exception {
+        List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+        List<WorkItem> items = new ArrayList<WorkItem>();
+        for (int i = 0; i < 1000; i++) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            items.add(workManager.schedule(new CountingWork(null), listener));
+        }
+        assertTrue(workManager.waitForAll(items, TIMEOUT));
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(WorkEvent.WORK_COMPLETED, items.get(i).getStatus());
+            assertEquals(Arrays.asList(WorkEvent.WORK_ACCEPTED, WorkEvent.WORK_STARTED, WorkEvent.WORK_COMPLETED), listeners.get(i).getEvents());
+        }
+    }
+
+    public void testFailedWorkCompletesWithException() throws Exception {
+        WorkItem item = workManager.schedule(new FailingWork());
+        assertTrue(workManager.waitForAll(Collections.singleton(item), TIMEOUT));
+        assertEquals(WorkEvent.WORK_COMPLETED, item.getStatus());
+        try {
+            item.getResult();
+            fail();
+        } catch (WorkCompletedException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public void testWaitForAll() throws Exception {
+        BlockingWork blocked = new BlockingWork();
+        WorkItem first = workManager.schedule(new CountingWork(null));
+        WorkItem second = workManager.schedule(blocked);
+        List<WorkItem> items = Arrays.asList(first, second);
+        assertFalse(workManager.waitForAll(items, WorkManager.IMMEDIATE));
+        long start = System.nanoTime();
+        assertFalse(workManager.waitForAll(items, 50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        blocked.unblock();
+        assertTrue(workManager.waitForAll(items, WorkManager.INDEFINITE));
+        assertTrue(workManager.waitForAll(items, WorkManager.IMMEDIATE));
+        try {
+            workManager.waitForAll(items, -1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testWaitForAllBatch() throws Exception {
+        List<Work> work = new ArrayList<Work>();
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 500; i++) {
+            work.add(new CountingWork(runs));
+        }
+        WorkBatch batch = workManager.scheduleAll(work, null);
+        assertEquals(500, batch.size());
+        assertTrue(workManager.waitForAll(batch, TIMEOUT));
+        assertTrue(batch.isDone());
+        assertEquals(0, batch.getRemaining());
+        assertEquals(500, runs.get());
+    }
+
+    public void testWaitForAny() throws Exception {
+        BlockingWork blocked = new BlockingWork();
+        WorkItem blockedItem = workManager.schedule(blocked);
+        assertTrue(blocked.awaitStarted());
+        List<WorkItem> items = Arrays.asList(blockedItem);
+        assertTrue(workManager.waitForAny(items, WorkManager.IMMEDIATE).isEmpty());
+        assertTrue(workManager.waitForAny(items, 50).isEmpty());
+
+        WorkItem completedItem = workManager.schedule(new CountingWork(null));
+        Collection completed = workManager.waitForAny(Arrays.asList(blockedItem, completedItem), TIMEOUT);
+        assertEquals(1, completed.size());
+        assertSame(completedItem, completed.iterator().next());
+        blocked.unblock();
+        completed = workManager.waitForAny(items, TIMEOUT);
+        assertEquals(1, completed.size());
+        assertSame(blockedItem, completed.iterator().next());
+    }
+
+    public void testCancelQueuedWork() throws Exception {
+        shutdownAndCreate(1, ExecutionMode.WORK_STEALING);
+        BlockingWork blocked = new BlockingWork();
+        WorkItem blockedItem = workManager.schedule(blocked);
+        assertTrue(blocked.awaitStarted());
+        AtomicInteger runs = new AtomicInteger();
+        RecordingListener listener = new RecordingListener();
+        DefaultWorkItem queued = (DefaultWorkItem) workManager.schedule(new CountingWork(runs), listener);
+
+        assertTrue(queued.cancel(false));
+        assertFalse(queued.cancel(false));
+        assertTrue(queued.isCancelled());
+        assertTrue(queued.isDone());
+        assertEquals(WorkEvent.WORK_REJECTED, queued.getStatus());
+        assertEquals(Arrays.asList(WorkEvent.WORK_ACCEPTED, WorkEvent.WORK_REJECTED), listener.getEvents());
+        try {
+            queued.getResult();
+            fail();
+        } catch (WorkCancelledException e) {
+            // expected
+        }
+        blocked.unblock();
+        assertTrue(workManager.waitForAll(Arrays.asList(blockedItem, queued), TIMEOUT));
+        // let the worker dequeue and skip the cancelled item
+        WorkItem last = workManager.schedule(new CountingWork(null));
+        assertTrue(workManager.waitForAll(Collections.singleton(last), TIMEOUT));
+        assertEquals(0, runs.get());
+    }
+
+    public void testCancelRunningWorkInterrupts() throws Exception {
+        BlockingWork blocked = new BlockingWork();
+        DefaultWorkItem item = (DefaultWorkItem) workManager.schedule(blocked);
+        assertTrue(blocked.awaitStarted());
+        assertTrue(item.cancel(true));
+        assertFalse(item.cancel(true));
+        assertTrue(workManager.waitForAll(Collections.singleton(item), TIMEOUT));
+        assertTrue(blocked.interrupted.get());
+        assertTrue(blocked.released.get());
+        assertTrue(item.isCancelled());
+        assertEquals(WorkEvent.WORK_COMPLETED, item.getStatus());
+        try {
+            item.getResult();
+            fail();
+        } catch (WorkCancelledException e) {
+            // expected
+        }
+        assertFalse(item.cancel(true));
+    }
+
+    public void testCompletedWorkCannotBeCancelled() throws Exception {
+        DefaultWorkItem item = (DefaultWorkItem) workManager.schedule(new CountingWork(null));
+        assertTrue(workManager.waitForAll(Collections.singleton(item), TIMEOUT));
+        assertFalse(item.cancel(true));
+        assertFalse(item.isCancelled());
+        assertNotNull(item.getResult());
+    }
+
+    public void testCompletionStage() throws Exception {
+        CountingWork work = new CountingWork(null);
+        DefaultWorkItem item = (DefaultWorkItem) workManager.schedule(work);
+        assertSame(work, item.toCompletionStage().toCompletableFuture().get(TIMEOUT, TimeUnit.MILLISECONDS));
+        // a stage created after completion is already complete
+        assertTrue(item.toCompletionStage().toCompletableFuture().isDone());
+
+        DefaultWorkItem failed = (DefaultWorkItem) workManager.schedule(new FailingWork());
+        CompletableFuture<Work> future = failed.toCompletionStage().toCompletableFuture();
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WorkCompletedException);
+        }
+    }
+
+    public void testForkJoin() throws Exception {
+        for (ExecutionMode mode : new ExecutionMode[]{ExecutionMode.WORK_STEALING, ExecutionMode.PRIORITY}) {
+            shutdownAndCreate(2, mode);
+            SumWork work = new SumWork(workManager, 0, 1000000);
+            WorkItem item = workManager.schedule(work);
+            assertTrue(workManager.waitForAll(Collections.singleton(item), TIMEOUT));
+            assertEquals(mode.toString(), 999999L * 1000000L / 2, ((SumWork) item.getResult()).sum);
+        }
+    }
+
+    public void testShutdownRejectsWork() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        List<WorkItem> items = new ArrayList<WorkItem>();
+        for (int i = 0; i < 100; i++) {
+            items.add(workManager.schedule(new CountingWork(runs)));
+        }
+        workManager.shutdown();
+        assertTrue(workManager.isShutdown());
+        try {
+            workManager.schedule(new CountingWork(null));
+            fail();
+        } catch (WorkRejectedException e) {
+            // expected
+        }
+        // queued work is allowed to complete
+        assertTrue(workManager.waitForAll(items, TIMEOUT));
+        assertEquals(100, runs.get());
+    }
+
+    /**
+     * Schedules work one item at a time, pausing now and then so that the workers park, and from several threads at once. Each item must be
+     * picked up; a lost wakeup leaves it queued with every worker parked and the wait timing out.
+     */
+    public void testParkedWorkersAreWoken() throws Exception {
+        for (ExecutionMode mode : new ExecutionMode[]{ExecutionMode.WORK_STEALING, ExecutionMode.PRIORITY}) {
+            shutdownAndCreate(4, mode);
+            for (int i = 0; i < 500; i++) {
+                WorkItem item = workManager.schedule(new CountingWork(null));
+                assertTrue(mode + " item " + i, workManager.waitForAll(Collections.singleton(item), TIMEOUT));
+                if (i % 50 == 0) {
+                    Thread.sleep(5);
+                }
+            }
+
+            final AtomicInteger runs = new AtomicInteger();
+            final AtomicBoolean failed = new AtomicBoolean();
+            Thread[] schedulers = new Thread[4];
+            for (int i = 0; i < schedulers.length; i++) {
+                schedulers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 2000; j++) {
+                                WorkItem item = workManager.schedule(new CountingWork(runs));
+                                if (j % 100 == 0 && !workManager.waitForAll(Collections.singleton(item), TIMEOUT)) {
+                                    failed.set(true);
+                                }
+                            }
+                        } catch (Exception e) {
+                            failed.set(true);
+                        }
+                    }
+                };
+                schedulers[i].start();
+            }
+            for (Thread scheduler : schedulers) {
+                scheduler.join(TIMEOUT * 2);
+                assertFalse(scheduler.isAlive());
+            }
+            assertFalse(mode.toString(), failed.get());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+            while (runs.get() < 8000 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(mode.toString(), 8000, runs.get());
+        }
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        workManager = create(2, ExecutionMode.WORK_STEALING);
+    }
+
+    protected void tearDown() throws Exception {
+        workManager.shutdown();
+        super.tearDown();
+    }
+
+    private void shutdownAndCreate(int parallelism, ExecutionMode mode) {
+        workManager.shutdown();
+        workManager = create(parallelism, mode);
+    }
+
+    private static DefaultWorkManager create(int parallelism, ExecutionMode mode) {
+        WorkManagerConfiguration configuration = new WorkManagerConfiguration();
+        configuration.setName("test");
+        configuration.setParallelism(parallelism);
+        configuration.setExecutionMode(mode);
+        return new DefaultWorkManager(configuration);
+    }
+
+    private static class CountingWork implements Work {
+        private final AtomicInteger runs;
+
+        private CountingWork(AtomicInteger runs) {
+            this.runs = runs;
+        }
+
+        public void run() {
+            if (runs != null) {
+                runs.incrementAndGet();
+            }
+        }
+
+        public void release() {
+        }
+
+        public boolean isDaemon() {
+            return false;
+        }
+    }
+
+    private static class FailingWork implements Work {
+
+        public void run() {
+            throw new IllegalStateException("Failed");
+        }
+
+        public void release() {
+        }
+
+        public boolean isDaemon() {
+            return false;
+        }
+    }
+
+    private static class BlockingWork implements Work {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch unblocked = new CountDownLatch(1);
+        private final AtomicBoolean interrupted = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void run() {
+            started.countDown();
+            try {
+                unblocked.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        }
+
+        public void release() {
+            released.set(true);
+        }
+
+        public boolean isDaemon() {
+            return false;
+        }
+
+        boolean awaitStarted() throws InterruptedException {
+            return started.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+    }
+
+    /**
+     * Sums a range of numbers by forking halves until the ranges are small.
+     */
+    private static class SumWork implements Work {
+        private final DefaultWorkManager workManager;
+        private final long from;
+        private final long to;
+        private long sum;
+
+        private SumWork(DefaultWorkManager workManager, long from, long to) {
+            this.workManager = workManager;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void run() {
+            if (to - from <= 1000) {
+                for (long i = from; i < to; i++) {
+                    sum += i;
+                }
+                return;
+            }
+            long middle = (from + to) >>> 1;
+            try {
+                WorkItem left = workManager.fork(new SumWork(workManager, from, middle));
+                WorkItem right = workManager.fork(new SumWork(workManager, middle, to));
+                workManager.joinAll(Arrays.asList(left, right));
+                sum = ((SumWork) left.getResult()).sum + ((SumWork) right.getResult()).sum;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public void release() {
+        }
+
+        public boolean isDaemon() {
+            return false;
+        }
+    }
+
+    private static class RecordingListener implements WorkListener {
+        private final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+
+        public void workAccepted(WorkEvent we) {
+            events.add(we.getType());
+        }
+
+        public void workRejected(WorkEvent we) {
+            events.add(we.getType());
+        }
+
+        public void workStarted(WorkEvent we) {
+            events.add(we.getType());
+        }
+
+        public void workCompleted(WorkEvent we) {
+            events.add(we.getType());
+        }
+
+        List<Integer> getEvents() {
+            synchronized (events) {
+                return new ArrayList<Integer>(events);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the stack discipline and gating of {@link IdleStack}, and that workers parked on it are never left parked when signalled.
+ */
+public class IdleStackTestCase extends TestCase {
+    private static final int WORKERS = 4;
+    private static final int WAKEUPS = 20000;
+
+    public void testSignalWakesMostRecentlyParkedWorker() {
+        IdleStack stack = register(new IdleStack(3));
+        assertFalse(stack.signal());
+        for (int i = 0; i < 3; i++) {
+            stack.push(i);
+            assertTrue(stack.isIdle(i));
+        }
+        assertTrue(stack.signal());
+        assertFalse(stack.isIdle(2));
+        assertTrue(stack.isIdle(1));
+        stack.signal(5);
+        assertFalse(stack.isIdle(1));
+        assertFalse(stack.isIdle(0));
+        assertFalse(stack.signal());
+    }
+
+    public void testGatedWorkersAreSkipped() {
+        IdleStack stack = register(new IdleStack(3));
+        stack.setLimit(1);
+        assertEquals(1, stack.getLimit());
+        assertFalse(stack.isGated(0));
+        assertTrue(stack.isGated(1));
+        assertTrue(stack.isGated(2));
+        stack.push(0);
+        stack.push(1);
+        stack.push(2);
+        // the gated workers are popped and dropped on the way to the admitted one
+        assertTrue(stack.signal());
+        assertFalse(stack.isIdle(0));
+        assertFalse(stack.isIdle(1));
+        assertFalse(stack.isIdle(2));
+        assertFalse(stack.signal());
+
+        stack.push(1);
+        assertFalse(stack.signal());
+        stack.setLimit(3);
+        assertFalse(stack.isGated(2));
+    }
+
+    /**
+     * Parks and wakes workers repeatedly, so that pushes and pops race each other. Each round a worker pushes itself and parks until it has been
+     * popped; a wakeup lost between the push and the park would leave the worker parked and the test timing out.
+     */
+    public void testParkedWorkersAreWoken() throws Exception {
+        final IdleStack stack = new IdleStack(WORKERS);
+        final AtomicInteger wakeups = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread[] workers = new Thread[WORKERS];
+        for (int i = 0; i < WORKERS; i++) {
+            final int index = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    while (wakeups.get() < WAKEUPS) {
+                        stack.push(index);
+                        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                        while (stack.isIdle(index)) {
+                            if (System.nanoTime() > deadline) {
+                                failed.set(true);
+                                return;
+                            }
+                            LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                        }
+                        wakeups.incrementAndGet();
+                    }
+                }
+            };
+            stack.register(i, workers[i]);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (wakeups.get() < WAKEUPS && !failed.get() && System.nanoTime() < deadline) {
+            stack.signal();
+        }
+        // release workers that pushed themselves after the last wakeup
+        while (isAlive(workers) && System.nanoTime() < deadline) {
+            stack.signal();
+        }
+        assertFalse("A worker was not woken", failed.get());
+        assertTrue(wakeups.get() >= WAKEUPS);
+        for (Thread worker : workers) {
+            worker.join(1000);
+            assertFalse(worker.isAlive());
+        }
+    }
+
+    private static IdleStack register(IdleStack stack) {
+        for (int i = 0; i < 3; i++) {
+            stack.register(i, Thread.currentThread());
+        }
+        return stack;
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link RingQueue} ordering and capacity, and that concurrent producers and consumers neither lose nor duplicate elements.
+ */
+public class RingQueueTestCase extends TestCase {
+    private static final int PRODUCERS = 3;
+    private static final int CONSUMERS = 3;
+    private static final int ELEMENTS_PER_PRODUCER = 100000;
+
+    public void testFifo() {
+        RingQueue<Integer> queue = new RingQueue<Integer>(4);
+        assertTrue(queue.isEmpty());
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(round * 3 + i));
+            }
+            assertEquals(3, queue.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Integer.valueOf(round * 3 + i), queue.poll());
+            }
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testCapacityIsBounded() {
+        RingQueue<Integer> queue = new RingQueue<Integer>(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(8));
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(8));
+        assertEquals(8, queue.size());
+    }
+
+    /**
+     * Verifies that each element is polled exactly once and that each consumer sees the elements of a producer in the order they were offered.
+     */
+    public void testConcurrentOfferAndPoll() throws Exception {
+        final RingQueue<Integer> queue = new RingQueue<Integer>(128);
+        final int total = PRODUCERS * ELEMENTS_PER_PRODUCER;
+        final AtomicIntegerArray taken = new AtomicIntegerArray(total);
+        final AtomicInteger remaining = new AtomicInteger(total);
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[PRODUCERS + CONSUMERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int base = i * ELEMENTS_PER_PRODUCER;
+            threads[i] = new Thread() {
+                public void run() {
+                    WorkStealingDequeTestCase.await(start);
+                    for (int j = 0; j < ELEMENTS_PER_PRODUCER; j++) {
+                        while (!queue.offer(base + j)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < CONSUMERS; i++) {
+            threads[PRODUCERS + i] = new Thread() {
+                public void run() {
+                    WorkStealingDequeTestCase.await(start);
+                    int[] last = new int[PRODUCERS];
+                    for (int j = 0; j < PRODUCERS; j++) {
+                        last[j] = -1;
+                    }
+                    while (remaining.get() > 0) {
+                        Integer element = queue.poll();
+                        if (element == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        int producer = element / ELEMENTS_PER_PRODUCER;
+                        if (element <= last[producer]) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        last[producer] = element;
+                        taken.incrementAndGet(element);
+                        remaining.decrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse(thread.isAlive());
+        }
+        assertEquals(0, outOfOrder.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals("Element " + i, 1, taken.get(i));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+}
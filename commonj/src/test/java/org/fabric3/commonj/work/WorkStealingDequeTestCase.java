@@ -0,0 +1,154 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the owner and thief operations of {@link WorkStealingDeque}, alone and concurrently.
+ */
+public class WorkStealingDequeTestCase extends TestCase {
+    private static final int ELEMENTS = 1000000;
+    private static final int THIEVES = 3;
+
+    public void testOwnerTakesNewestAndThievesTakeOldest() {
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>(8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(deque.push(i));
+        }
+        assertEquals(4, deque.size());
+        assertEquals(Integer.valueOf(3), deque.pop());
+        assertEquals(Integer.valueOf(0), deque.steal());
+        assertEquals(Integer.valueOf(2), deque.pop());
+        assertEquals(Integer.valueOf(1), deque.steal());
+        assertNull(deque.pop());
+        assertNull(deque.steal());
+        assertTrue(deque.isEmpty());
+    }
+
+    public void testCapacityIsBounded() {
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(deque.push(i));
+        }
+        assertFalse(deque.push(4));
+        assertEquals(Integer.valueOf(0), deque.steal());
+        assertTrue(deque.push(4));
+        assertEquals(Integer.valueOf(4), deque.pop());
+    }
+
+    public void testWrapAround() {
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>(4);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(deque.push(i));
+            assertTrue(deque.push(-i));
+            assertEquals(Integer.valueOf(i), deque.steal());
+            assertEquals(Integer.valueOf(-i), deque.pop());
+        }
+        assertTrue(deque.isEmpty());
+    }
+
+    /**
+     * Verifies that every element is taken exactly once when the owner pushes and pops while thieves steal, including races for the last
+     * element.
+     */
+    public void testConcurrentPopAndSteal() throws Exception {
+        final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>(64);
+        final AtomicIntegerArray taken = new AtomicIntegerArray(ELEMENTS);
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] thieves = new Thread[THIEVES];
+        for (int i = 0; i < THIEVES; i++) {
+            thieves[i] = new Thread() {
+                public void run() {
+                    await(start);
+                    while (!done.get() || !deque.isEmpty()) {
+                        Integer element = deque.steal();
+                        if (element != null) {
+                            taken.incrementAndGet(element);
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            thieves[i].start();
+        }
+        start.countDown();
+        for (int i = 0; i < ELEMENTS; i++) {
+            while (!deque.push(i)) {
+                take(deque.pop(), taken);
+            }
+            if (i % 3 == 0) {
+                // keep the deque short so that the owner and thieves race for the last element
+                take(deque.pop(), taken);
+            }
+        }
+        done.set(true);
+        Integer element;
+        while ((element = deque.pop()) != null) {
+            taken.incrementAndGet(element);
+        }
+        for (Thread thief : thieves) {
+            thief.join(10000);
+            assertFalse(thief.isAlive());
+        }
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertEquals("Element " + i, 1, taken.get(i));
+        }
+    }
+
+    private static void take(Integer element, AtomicIntegerArray taken) {
+        if (element != null) {
+            taken.incrementAndGet(element);
+        }
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
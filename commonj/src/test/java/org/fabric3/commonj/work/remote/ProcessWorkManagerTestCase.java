@@ -0,0 +1,156 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import commonj.work.RemoteWorkItem;
+import commonj.work.Work;
+import commonj.work.WorkCompletedException;
+import commonj.work.WorkEvent;
+import commonj.work.WorkItem;
+import commonj.work.WorkRejectedException;
+import junit.framework.TestCase;
+
+/**
+ * Tests that work scheduled on a {@link ProcessWorkManager} runs in its worker processes and that results and failures are returned.
+ */
+public class ProcessWorkManagerTestCase extends TestCase {
+    private static final long TIMEOUT = 30000;
+
+    private ProcessWorkManager workManager;
+
+    public void testResultsAreReturned() throws Exception {
+        List<WorkItem> items = new ArrayList<WorkItem>();
+        for (int i = 0; i < 20; i++) {
+            items.add(workManager.schedule(new SquareWork(i)));
+        }
+        assertTrue(workManager.waitForAll(items, TIMEOUT));
+        for (int i = 0; i < items.size(); i++) {
+            WorkItem item = items.get(i);
+            assertEquals(WorkEvent.WORK_COMPLETED, item.getStatus());
+            SquareWork result = (SquareWork) item.getResult();
+            assertEquals(i * i, result.square);
+            assertTrue(workManager.getProcesses().contains(((RemoteWorkItem) item).getPinnedWorkManager()));
+        }
+    }
+
+    public void testFailureIsReturned() throws Exception {
+        WorkItem item = workManager.schedule(new SquareWork(-1));
+        assertEquals(1, workManager.waitForAny(Collections.singleton(item), TIMEOUT).size());
+        assertEquals(WorkEvent.WORK_COMPLETED, item.getStatus());
+        try {
+            item.getResult();
+            fail();
+        } catch (WorkCompletedException e) {
+            // expected
+        }
+    }
+
+    public void testWorkMustBeSerializable() throws Exception {
+        try {
+            workManager.schedule(new Work() {
+                public void run() {
+                }
+
+                public void release() {
+                }
+
+                public boolean isDaemon() {
+                    return false;
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testShutdownRejectsWork() throws Exception {
+        workManager.shutdown();
+        assertTrue(workManager.isShutdown());
+        try {
+            workManager.schedule(new SquareWork(1));
+            fail();
+        } catch (WorkRejectedException e) {
+            // expected
+        }
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        ProcessWorkManagerConfiguration configuration = new ProcessWorkManagerConfiguration();
+        configuration.setProcesses(2);
+        configuration.setClassPath(System.getProperty("java.class.path"));
+        workManager = new ProcessWorkManager(configuration);
+    }
+
+    protected void tearDown() throws Exception {
+        workManager.shutdown();
+        super.tearDown();
+    }
+
+    private static class SquareWork implements Work, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int value;
+        private int square;
+
+        private SquareWork(int value) {
+            this.value = value;
+        }
+
+        public void run() {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative value: " + value);
+            }
+            square = value * value;
+        }
+
+        public void release() {
+        }
+
+        public boolean isDaemon() {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Fabric3
+ * Copyright (c) 2009-2012 Metaform Systems
+ *
+ * Fabric3 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version, with the
+ * following exception:
+ *
+ * Linking this software statically or dynamically with other
+ * modules is making a combined work based on this software.
+ * Thus, the terms and conditions of the GNU General Public
+ * License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this software
+ * give you permission to link this software with independent
+ * modules to produce an executable, regardless of the license
+ * terms of these independent modules, and to copy and distribute
+ * the resulting executable under terms of your choice, provided
+ * that you also meet, for each linked independent module, the
+ * terms and conditions of the license of that module. An
+ * independent module is a module which is not derived from or
+ * based on this software. If you modify this software, you may
+ * extend this exception to your version of the software, but
+ * you are not obligated to do so. If you do not wish to do so,
+ * delete this exception statement from your version.
+ *
+ * Fabric3 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the
+ * GNU General Public License along with Fabric3.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fabric3.commonj.work.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link Protocol} messages and serialized objects read back as they were written.
+ */
+public class ProtocolTestCase extends TestCase {
+
+    public void testMessagesRoundTrip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] payload = Protocol.serialize(Arrays.asList("a", "b"));
+        Protocol.write(out, Protocol.SUBMIT, 1, payload);
+        Protocol.write(out, Protocol.STARTED, 1);
+        Protocol.write(out, Protocol.COMPLETED, Long.MAX_VALUE, new byte[0]);
+        Protocol.write(out, Protocol.SHUTDOWN, 0);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(Protocol.SUBMIT, in.readByte());
+        assertEquals(1, in.readLong());
+        assertTrue(Protocol.hasPayload(Protocol.SUBMIT));
+        byte[] read = Protocol.readPayload(in);
+        assertTrue(Arrays.equals(payload, read));
+        assertEquals(Arrays.asList("a", "b"), Protocol.deserialize(read, getClass().getClassLoader()));
+
+        assertEquals(Protocol.STARTED, in.readByte());
+        assertEquals(1, in.readLong());
+        assertFalse(Protocol.hasPayload(Protocol.STARTED));
+
+        assertEquals(Protocol.COMPLETED, in.readByte());
+        assertEquals(Long.MAX_VALUE, in.readLong());
+        assertEquals(0, Protocol.readPayload(in).length);
+
+        assertEquals(Protocol.SHUTDOWN, in.readByte());
+        assertEquals(0, in.readLong());
+        assertFalse(Protocol.hasPayload(Protocol.SHUTDOWN));
+        assertEquals(-1, in.read());
+    }
+
+    public void testPayloadMessageTypes() {
+        assertTrue(Protocol.hasPayload(Protocol.SUBMIT));
+        assertTrue(Protocol.hasPayload(Protocol.COMPLETED));
+        assertTrue(Protocol.hasPayload(Protocol.FAILED));
+        assertFalse(Protocol.hasPayload(Protocol.RELEASE));
+        assertFalse(Protocol.hasPayload(Protocol.SHUTDOWN));
+        assertFalse(Protocol.hasPayload(Protocol.STARTED));
+    }
+
+}